@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2017, Volker Simonis
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this
+ *    list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDER OR CONTRIBUTORS BE LIABLE
+ * FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL
+ * DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY,
+ * OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package io.simonis;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.regex.MatchResult;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs both {@link cl4cds#convert(BufferedReader, PrintStream)} and the original regex-based converter over given
+ * trace several times, checks that their output is identical (which is not the case if some classes come before their
+ * super classes or interfaces) and prints the timings.
+ * <p>Usage: {@code ConvertBenchmark <class-trace-file> [<iterations>]} (10 iterations by default).
+ *
+ * @author simonis
+ * @author Toparvion
+ */
+public class ConvertBenchmark {
+
+  public static void main(String... args) throws IOException {
+    if (args.length == 0 || args[0].isEmpty()) {
+      System.err.println("Benchmark requires <class-trace-file> to be specified");
+      System.exit(1);
+    }
+    Path trace = Paths.get(args[0]);
+    int iterations = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+    try (cl4cds converter = new cl4cds().withDebug(false)) {     // tracing would dominate the timings
+      benchmark(converter, trace, iterations);
+    }
+  }
+
+  private static void benchmark(cl4cds converter, Path trace, int iterations) throws IOException {
+    String content = Files.readString(trace);
+    RegexConverter regexConverter = new RegexConverter(converter);
+    long[] regexTimes = new long[iterations];
+    long[] scannerTimes = new long[iterations];
+    boolean identical = true;
+    int outputSize = 0;
+    for (int i = 0; i < iterations; i++) {
+      ByteArrayOutputStream regexOut = new ByteArrayOutputStream(0xffff);
+      ByteArrayOutputStream scannerOut = new ByteArrayOutputStream(0xffff);
+      long start = System.nanoTime();
+      regexConverter.convert(new BufferedReader(new StringReader(content)), new PrintStream(regexOut));
+      regexTimes[i] = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      converter.convert(new BufferedReader(new StringReader(content)), new PrintStream(scannerOut));
+      scannerTimes[i] = System.nanoTime() - start;
+
+      identical &= Arrays.equals(regexOut.toByteArray(), scannerOut.toByteArray());
+      outputSize = scannerOut.size();
+    }
+    LongSummaryStatistics regexStats = Arrays.stream(regexTimes).summaryStatistics();
+    LongSummaryStatistics scannerStats = Arrays.stream(scannerTimes).summaryStatistics();
+    System.out.printf("Trace: %s (%d chars), iterations: %d, output: %d bytes, identical: %b%n", trace,
+        content.length(), iterations, outputSize, identical);
+    System.out.printf("  regex   : best %6.1f ms, avg %6.1f ms%n", regexStats.getMin() / 1e6, regexStats.getAverage() / 1e6);
+    System.out.printf("  scanner : best %6.1f ms, avg %6.1f ms%n", scannerStats.getMin() / 1e6, scannerStats.getAverage() / 1e6);
+    System.out.printf("  speedup : %.1fx (by best times)%n", (double) regexStats.getMin() / scannerStats.getMin());
+  }
+
+  /**
+   * The original regex-based implementation of {@link cl4cds#convert(BufferedReader, PrintStream)}. Drops the custom
+   * loaders' classes with unresolved dependencies right away, so the outputs are equal unless there are such classes.
+   * Shares the configuration and the caches of given converter.
+   */
+  static final class RegexConverter {
+    // Pattern for JVM class names (see JVMLS §4.2)
+    private static final String uqNameP = "((?:[^,;/\\[]+?\\.)*(?:[^,;/\\[]+?))";
+    private static final String timeDecoP = "\\[.+?\\]";
+    private static final String hexP = " (0x[0-9a-f]+)";
+    private static final String hexesP = " (0x[0-9a-f]+(?: 0x[0-9a-f]+)*)";
+    private static final String infoDecoP = "\\[info *\\Q][class,load]\\E ";
+    private static final String debugDecoP = "\\[debug *\\Q][class,load]\\E ";
+    private static final Pattern firstLineP = Pattern.compile(timeDecoP + infoDecoP + uqNameP + " source: (.+)");
+    private static final Pattern secondLineP = Pattern.compile(timeDecoP + debugDecoP +
+        " klass:" + hexP + " super:" + hexP + "(?: interfaces:" + hexesP + ")? loader: \\[(.+?)\\]" + ".*");
+
+    private final cl4cds converter;
+    private final boolean DBG;
+    private final boolean ClassesOnly;
+    private final boolean CompactIDs;
+    private final boolean DumpFromClassFiles;
+
+    RegexConverter(cl4cds converter) {
+      this.converter = converter;
+      this.DBG = converter.DBG;
+      this.ClassesOnly = converter.ClassesOnly;
+      this.CompactIDs = converter.CompactIDs;
+      this.DumpFromClassFiles = converter.DumpFromClassFiles;
+    }
+
+    void convert(BufferedReader in, PrintStream out) throws IOException {
+      if (DBG) {
+        System.err.println("The following two patterns are used to match the -Xlog:class+load=trace output:");
+        System.err.println("  " + firstLineP.toString());
+        System.err.println("  " + secondLineP.toString());
+      }
+      Matcher firstLine = firstLineP.matcher("");
+      Matcher secondLine = secondLineP.matcher("");
+      try (in) {
+        String line;
+        long objectID = 0;
+        Set<String> klassSet = new HashSet<>();
+        Set<String> klassNameSet = new HashSet<>();
+        while((line = in.readLine()) != null) {
+          if (firstLine.reset(line).matches()) {
+            MatchResult mr1 = firstLine.toMatchResult();
+            String name = mr1.group(1);
+            String source = mr1.group(2);
+            if (source.contains("__JVM_DefineClass__")) {
+              // skip classes which have been generated dynamically at runtime
+              if (DBG) {
+                System.err.println("Skipping " + name + " from " + source + " - reason: dynamically generated class");
+              }
+              continue;
+            }
+            if ((line = in.readLine()) != null &&
+                secondLine.reset(line).matches()) {
+              MatchResult mr2 = secondLine.toMatchResult();
+              String klass = mr2.group(1);
+              String parent = mr2.group(2);
+              String interf = mr2.group(3);
+              String loader = mr2.group(4);
+
+              if (CompactIDs && "java.lang.Object".equals(name)) {
+                if (objectID != 0) {
+                  throw new IOException("java.lang.Object can't be loaded twice");
+                }
+                objectID = Long.parseUnsignedLong(klass.substring(2), 16) - 1;
+                if (DBG) {
+                  System.err.println("java.lang.Objekt klass = " + klass + " (" + objectID +")");
+                }
+              }
+
+              if (CompactIDs) {
+                klass = compact(klass, objectID);
+                parent = compact(parent, objectID);
+                if (interf != null) {
+                  interf = compact(interf, objectID);
+                }
+              }
+
+              if (DBG) {
+                System.err.println("loader = " + loader);
+              }
+
+              if ("NULL class loader".equals(loader) ||
+                  loader.contains("of <bootloader>") || // this is JDK 11 syntax
+                  loader.contains("of 'bootstrap'") || // this is JDK 12 syntax
+                  loader.contains("jdk/internal/loader/ClassLoaders$PlatformClassLoader" /* && source == jrt image */) ||
+                  loader.contains("jdk/internal/loader/ClassLoaders$AppClassLoader" /* && source == jar file */)) {
+                out.print(name.replace('.', '/'));
+                if (!ClassesOnly) {
+                  out.print(" id: " + klass);
+                }
+                out.println();
+                klassSet.add(klass);
+                klassNameSet.add(name);
+              }
+              else {
+                // Custom class loader (currently only supported if classes are loaded from jar files ?)
+                String sourceFile = null;
+                if (source != null && source.startsWith("file:") /* && source.endsWith(".jar") */) {
+                  sourceFile = source.substring("file:".length());
+                }
+                else if (source != null && source.startsWith("jar:file:") && source.endsWith("!/")) {
+                  sourceFile = source.substring("jar:file:".length(), source.length() - 2);
+                }
+                else {
+                  if (DBG) {
+                    System.err.println("Skipping " + name + " from " + source + " - reason: unknown source format");
+                  }
+                  continue;
+                }
+                if (!DumpFromClassFiles)
+                  if (sourceFile.startsWith("/") && sourceFile.charAt(2) == ':') {
+                    sourceFile = sourceFile.substring(1);   // to remove leading slash from paths like '/C:/Users/...'
+                  }
+                  if (Files.isDirectory(Paths.get(sourceFile))) {
+                    if (DBG) {
+                      System.err.println("Skipping " + name + " from " + sourceFile + " - reason: loaded from class file (try '-Dio.simonis.cl4cds.dumpFromClassFile=true')");
+                    }
+                    continue;
+                  }
+                cl4cds.Status ret;
+
+                if (sourceFile.endsWith(".jar") && sourceFile.contains(".jar!")) {
+                  // This is a fat jar file, so let's extract it
+                  sourceFile = converter.extractFatJar(sourceFile);
+                }
+                if ((ret = converter.checkClass(name.replace('.', '/'), sourceFile)) != cl4cds.Status.OK) {
+                  if (DBG) {
+                    switch (ret) {
+                    case PRE_15 :
+                      System.err.println("Skipping " + name + " from " + sourceFile + " - reason: class is pre 1.5");
+                      break;
+                    case LOAD_ERROR:
+                    case ZIP_ERROR:
+                    case JAR_ERROR:
+                      System.err.println("Skipping " + name + " from " + sourceFile + " - reason: can't load (maybe generated?))");
+                      break;
+                    case ERROR:
+                      System.err.println("Skipping " + name + " from " + sourceFile + " - reason: unknown source");
+                      break;
+                    }
+                  }
+                  continue;
+                }
+                if (klassNameSet.contains(name)) {
+                  if (DBG) {
+                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: already dumped");
+                  }
+                  continue;
+                }
+                List<String> deps = new LinkedList<>();
+                deps.add(parent);
+                if (interf != null) {
+                  deps.addAll(Arrays.asList(interf.split("\\s")));
+                }
+                if (klassSet.containsAll(deps)) {
+                  out.print(name.replace('.', '/'));
+                  if (!ClassesOnly) {
+                    out.print(" id: " + klass + " super: " + parent);
+                    if (interf != null) {
+                      out.print(" interfaces: " + interf);
+                    }
+                    out.print(" source: " + sourceFile);
+                  }
+                  out.println();
+                  klassSet.add(klass);
+                  klassNameSet.add(name);
+                }
+                else {
+                  if (DBG) {
+                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: failed dependencies");
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    private String compact(String ids, long objectID) {
+      String compact = "";
+      Scanner scan = new Scanner(ids);
+      while (scan.hasNext()) {
+        long id = Long.parseLong(scan.next().substring(2), 16);
+        int compactID = (id == 0) ? 0 : (int)(id - objectID);
+        if (compactID < 0) {
+          System.err.println("Negative klass ID (" + ids + ", " + compactID + "). Try: -Dio.simonis.cl4cds.compactIDs=false");
+        }
+        compact += ("".equals(compact) ? "" : " ") + compactID;
+      }
+      if (DBG) {
+        System.err.println("Compacting " + ids + " to " + compact);
+      }
+      return compact;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+package io.simonis;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * A persistent cache of class file versions of all the classes contained in JARs. A JAR is identified by the
+ * {@linkplain MappedZip#digest() digest} of its central directory rather than by its path, so that the same
+ * library is read only once no matter how many applications (or fat JARs) bring it and how many times they are
+ * converted. Upon the first request a JAR is scanned completely (only the first 8 bytes of every class are read) and
+ * the result is stored into {@code <cacheDir>/<digest prefix>.cv} file as a deflated, front-coded sorted list of class
+ * names along with their major versions. Any further request (including those from other processes) just reads that
+ * file. The file keeps the complete digest, so a file of another JAR with the same name prefix is never taken.
+ * <p>The cache is safe to be used by concurrent conversions; the files are replaced atomically so that concurrent
+ * processes never see them half-written. Any failure to read or write a file degrades to scanning the JAR.</p>
+ *
+ * @author Toparvion
+ */
+final class ClassVersionCache {
+  /** the version of a class whose file is shorter than its header, i.e. can't be checked */
+  static final int TRUNCATED = -1;
+
+  private static final int MAGIC = 0x434c3476;     // 'CL4v'
+  private static final int FORMAT_VERSION = 2;
+  private static final int DIGEST_SIZE = 32;
+  /** the number of digest's bytes to name the files with */
+  private static final int FILE_NAME_BYTES = 8;
+  private static final String CLASS_SUFFIX = ".class";
+  private static final String VERSIONS_DIR = "META-INF/versions/";
+
+  private final Path cacheDir;
+  private final boolean dbg;
+  /** digest (in hex) -> class name (without '.class') -> major version */
+  private final Map<String, Map<String, Integer>> loaded = new ConcurrentHashMap<>();
+
+  /**
+   * @param cacheDir the directory to keep the files in; created upon the first write
+   */
+  ClassVersionCache(Path cacheDir, boolean dbg) {
+    this.cacheDir = cacheDir;
+    this.dbg = dbg;
+  }
+
+  /**
+   * @return class names (without {@code .class} suffix) of given JAR mapped to their major versions; the classes
+   * absent in the map are absent in the JAR
+   */
+  Map<String, Integer> versions(MappedZip jar) throws IOException {
+    byte[] digest = jar.digest();
+    String key = toHex(digest, DIGEST_SIZE);
+    Map<String, Integer> versions = loaded.get(key);
+    if (versions != null) {
+      return versions;
+    }
+    // concurrent conversions may scan the same JAR twice at worst which is cheaper than locking around the I/O
+    Path file = cacheDir.resolve(toHex(digest, FILE_NAME_BYTES) + ".cv");
+    versions = load(file, digest);
+    if (versions == null) {
+      versions = scan(jar);
+      store(file, digest, versions);
+    }
+    Map<String, Integer> previous = loaded.putIfAbsent(key, versions);
+    return (previous != null) ? previous : versions;
+  }
+
+  void clear() {
+    loaded.clear();
+  }
+
+  private static Map<String, Integer> scan(MappedZip jar) throws IOException {
+    Map<String, Integer> versions = new HashMap<>();
+    for (String entryName : jar.names()) {
+      if (!entryName.endsWith(CLASS_SUFFIX) || entryName.startsWith(VERSIONS_DIR)) {
+        continue;
+      }
+      try (InputStream in = jar.getInputStream(entryName)) {
+        byte[] header = in.readNBytes(8);
+        int version = TRUNCATED;
+        if (header.length == 8) {
+          boolean validMagic = (header[0] & 0xff) == 0xca && (header[1] & 0xff) == 0xfe
+                  && (header[2] & 0xff) == 0xba && (header[3] & 0xff) == 0xbe;
+          version = validMagic ? ((header[6] & 0xff) << 8 | (header[7] & 0xff)) : 0;
+        }
+        versions.put(entryName.substring(0, entryName.length() - CLASS_SUFFIX.length()), version);
+      }
+    }
+    return versions;
+  }
+
+  private Map<String, Integer> load(Path file, byte[] digest) {
+    if (!Files.isRegularFile(file)) {
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new InflaterInputStream(Files.newInputStream(file))))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unexpected file header");
+      }
+      byte[] fileDigest = new byte[DIGEST_SIZE];
+      in.readFully(fileDigest);
+      if (!Arrays.equals(fileDigest, digest)) {
+        throw new IOException("The file belongs to another jar");
+      }
+      int count = in.readInt();
+      Map<String, Integer> versions = new HashMap<>(count * 4 / 3 + 1);
+      String previous = "";
+      for (int i = 0; i < count; i++) {
+        int shared = in.readUnsignedShort();
+        String name = previous.substring(0, shared) + in.readUTF();
+        versions.put(name, (int) in.readShort());
+        previous = name;
+      }
+      return versions;
+
+    } catch (IOException | RuntimeException e) {
+      if (dbg) {
+        System.err.println("Can't read class versions cache " + file + " (" + e + "), rescanning the jar");
+      }
+      return null;
+    }
+  }
+
+  private void store(Path file, byte[] digest, Map<String, Integer> versions) {
+    Path tmpFile = null;
+    try {
+      Files.createDirectories(cacheDir);
+      tmpFile = Files.createTempFile(cacheDir, file.getFileName().toString(), ".tmp");
+      List<String> names = new ArrayList<>(versions.keySet());
+      Collections.sort(names);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+              new DeflaterOutputStream(Files.newOutputStream(tmpFile))))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(digest);
+        out.writeInt(names.size());
+        String previous = "";
+        for (String name : names) {
+          int shared = sharedPrefixLength(previous, name);
+          out.writeShort(shared);
+          out.writeUTF(name.substring(shared));
+          out.writeShort(versions.get(name));
+          previous = name;
+        }
+      }
+      try {
+        Files.move(tmpFile, file, ATOMIC_MOVE);
+      } catch (IOException e) {
+        Files.move(tmpFile, file, REPLACE_EXISTING);
+      }
+
+    } catch (IOException e) {
+      if (dbg) {
+        System.err.println("Can't write class versions cache " + file + " (" + e + ")");
+      }
+      if (tmpFile != null) {
+        try {
+          Files.deleteIfExists(tmpFile);
+        } catch (IOException ignored) { }
+      }
+    }
+  }
+
+  private static String toHex(byte[] bytes, int count) {
+    StringBuilder hex = new StringBuilder(count * 2);
+    for (int i = 0; i < count; i++) {
+      hex.append(Character.forDigit((bytes[i] >> 4) & 0xf, 16)).append(Character.forDigit(bytes[i] & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private static int sharedPrefixLength(String a, String b) {
+    int limit = Math.min(Math.min(a.length(), b.length()), 0xffff);
+    int i = 0;
+    while (i < limit && a.charAt(i) == b.charAt(i)) {
+      i++;
+    }
+    return i;
+  }
+}
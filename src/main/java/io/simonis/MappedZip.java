@@ -0,0 +1,252 @@
+package io.simonis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * A read-only ZIP (JAR) file view over a byte buffer. The buffer is either a memory-mapped file or a slice of another
+ * {@code MappedZip}, so that a JAR nested into a Spring Boot 'fat' JAR can be read right from the outer file without
+ * being extracted anywhere. Nested JARs are normally stored (not compressed) and thus are sliced for free; compressed
+ * ones are inflated into heap as a fallback.
+ * <p>Only the end of central directory record is read upon opening; the central directory itself is parsed upon the
+ * first access to the entries and their data are read on demand. ZIP64 archives are not supported. The instances are
+ * safe to be used by multiple threads.</p>
+ *
+ * @author Toparvion
+ */
+final class MappedZip {
+  private static final int EOCD_SIGNATURE = 0x06054b50;
+  private static final int EOCD_SIZE = 22;
+  private static final int CEN_SIGNATURE = 0x02014b50;
+  private static final int CEN_SIZE = 46;
+  private static final int LOC_SIGNATURE = 0x04034b50;
+  private static final int LOC_SIZE = 30;
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  private final ByteBuffer zip;
+  private final int entriesCount;
+  private final int directoryStart;
+  private final int directorySize;
+  /** the number of bytes prepended to the archive (e.g. a launch script of an executable JAR) */
+  private final int prefixLength;
+  /** entry name -> offset of its central directory header; parsed lazily */
+  private Map<String, Integer> entries;
+  /** computed lazily */
+  private volatile byte[] digest;
+
+  private MappedZip(ByteBuffer zip) throws IOException {
+    this.zip = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    int eocd = findEndOfCentralDirectory();
+    this.entriesCount = Short.toUnsignedInt(this.zip.getShort(eocd + 10));
+    long directorySize = Integer.toUnsignedLong(this.zip.getInt(eocd + 12));
+    long directoryOffset = Integer.toUnsignedLong(this.zip.getInt(eocd + 16));
+    if (entriesCount == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+      throw new IOException("ZIP64 archives are not supported");
+    }
+    this.directorySize = Math.toIntExact(directorySize);
+    this.directoryStart = Math.toIntExact(eocd - directorySize);
+    this.prefixLength = Math.toIntExact(directoryStart - directoryOffset);
+  }
+
+  private synchronized Map<String, Integer> entries() throws IOException {
+    if (entries != null) {
+      return entries;
+    }
+    ByteBuffer directory = zip.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+    Map<String, Integer> entries = new HashMap<>(entriesCount * 4 / 3 + 1);
+    byte[] nameBytes = new byte[256];
+    for (int i = 0, cen = directoryStart; i < entriesCount; i++) {
+      if (directory.getInt(cen) != CEN_SIGNATURE) {
+        throw new IOException("Invalid central directory header at offset " + cen);
+      }
+      int nameLength = Short.toUnsignedInt(directory.getShort(cen + 28));
+      int extraLength = Short.toUnsignedInt(directory.getShort(cen + 30));
+      int commentLength = Short.toUnsignedInt(directory.getShort(cen + 32));
+      if (nameBytes.length < nameLength) {
+        nameBytes = new byte[nameLength];
+      }
+      directory.position(cen + CEN_SIZE);
+      directory.get(nameBytes, 0, nameLength);
+      entries.put(new String(nameBytes, 0, nameLength, UTF_8), cen);
+      cen += CEN_SIZE + nameLength + extraLength + commentLength;
+    }
+    this.entries = entries;
+    return entries;
+  }
+
+  /**
+   * @return SHA-256 digest of the central directory; as the directory holds names, sizes and CRCs of all the entries,
+   * this is a fingerprint of the whole archive content. It's computed once per instance.
+   */
+  byte[] digest() {
+    byte[] digest = this.digest;
+    if (digest == null) {
+      try {
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        sha256.update(zip.duplicate().position(directoryStart).limit(directoryStart + directorySize));
+        this.digest = digest = sha256.digest();
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("SHA-256 is not supported", e);     // every JRE must support it
+      }
+    }
+    return digest.clone();
+  }
+
+  /**
+   * @return names of all the entries
+   */
+  Set<String> names() throws IOException {
+    return Collections.unmodifiableSet(entries().keySet());
+  }
+
+  /**
+   * Maps given file into memory and parses its central directory.
+   */
+  static MappedZip map(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      if (channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Archives larger than 2 GB can't be mapped");
+      }
+      // the mapping stays valid after the channel is closed
+      return new MappedZip(channel.map(READ_ONLY, 0, channel.size()));
+    }
+  }
+
+  /**
+   * Opens an archive stored as an entry of this one. Stored entry is not copied anywhere.
+   * @return nested archive or {@code null} if there is no such entry
+   */
+  MappedZip nested(String name) throws IOException {
+    Integer cen = entries().get(name);
+    if (cen == null) {
+      return null;
+    }
+    ByteBuffer data = data(cen);
+    int method = Short.toUnsignedInt(zip.getShort(cen + 10));
+    if (method == STORED) {
+      return new MappedZip(data);
+    }
+    if (method != DEFLATED) {
+      throw new IOException("Unsupported compression method " + method + " of entry " + name);
+    }
+    int size = zip.getInt(cen + 24);
+    byte[] inflated = new byte[size];
+    Inflater inflater = new Inflater(true);
+    try {
+      inflater.setInput(data);
+      int length = 0;
+      while (length < size && !inflater.finished()) {
+        int read = inflater.inflate(inflated, length, size - length);
+        if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          throw new IOException("Truncated entry " + name);
+        }
+        length += read;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Malformed entry " + name, e);
+    } finally {
+      inflater.end();
+    }
+    return new MappedZip(ByteBuffer.wrap(inflated));
+  }
+
+  /**
+   * @return a stream of given entry's (uncompressed) content or {@code null} if there is no such entry
+   */
+  InputStream getInputStream(String name) throws IOException {
+    Integer cen = entries().get(name);
+    if (cen == null) {
+      return null;
+    }
+    int method = Short.toUnsignedInt(zip.getShort(cen + 10));
+    InputStream raw = new BufferInputStream(data(cen));
+    switch (method) {
+      case STORED:
+        return raw;
+      case DEFLATED:
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater, 512) {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            inflater.end();     // custom inflaters are not released by the stream itself
+          }
+        };
+      default:
+        throw new IOException("Unsupported compression method " + method + " of entry " + name);
+    }
+  }
+
+  private ByteBuffer data(int cen) throws IOException {
+    int loc = prefixLength + zip.getInt(cen + 42);
+    if (zip.getInt(loc) != LOC_SIGNATURE) {
+      throw new IOException("Invalid local header at offset " + loc);
+    }
+    // the lengths in local header may differ from the ones in central directory
+    int start = loc + LOC_SIZE + Short.toUnsignedInt(zip.getShort(loc + 26)) + Short.toUnsignedInt(zip.getShort(loc + 28));
+    int compressedSize = zip.getInt(cen + 20);
+    return zip.duplicate().position(start).limit(start + compressedSize).slice();
+  }
+
+  private int findEndOfCentralDirectory() throws IOException {
+    int lowest = Math.max(0, zip.limit() - EOCD_SIZE - 0xffff);     // the comment is at most 64K long
+    for (int eocd = zip.limit() - EOCD_SIZE; eocd >= lowest; eocd--) {
+      if (zip.getInt(eocd) == EOCD_SIGNATURE) {
+        return eocd;
+      }
+    }
+    throw new IOException("Not a ZIP archive (no end of central directory record found)");
+  }
+
+  /**
+   * A stream over remaining bytes of a buffer.
+   */
+  private static class BufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    BufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? (buffer.get() & 0xff) : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(len, buffer.remaining());
+      buffer.get(b, off, count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buffer.remaining();
+    }
+  }
+}
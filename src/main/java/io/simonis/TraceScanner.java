@@ -0,0 +1,381 @@
+package io.simonis;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * A hand-written equivalent of the two regular expressions cl4cds used to match {@code -Xlog:class+load} trace lines
+ * with (see {@code ConvertBenchmark} among benchmark sources). Reads the trace into a reusable char buffer, splits it
+ * into lines the same way {@link java.io.BufferedReader#readLine()} does and matches the lines in place, i.e. without
+ * creating any strings, matchers or match results. The matched parts are exposed as offsets into the buffer (the info
+ * line's name and source are copied into separate reusable buffers as they must outlive the next line reading).
+ *
+ * @author Toparvion
+ */
+final class TraceScanner {
+  private static final char[] INFO_MARKER = "][info".toCharArray();
+  private static final char[] DEBUG_MARKER = "][debug".toCharArray();
+  private static final char[] TAGS = "][class,load] ".toCharArray();
+  private static final char[] SOURCE = " source: ".toCharArray();
+  private static final char[] KLASS = " klass: 0x".toCharArray();
+  private static final char[] SUPER = " super: 0x".toCharArray();
+  private static final char[] INTERFACES = " interfaces: 0x".toCharArray();
+  private static final char[] LOADER = " loader: [".toCharArray();
+
+  private final Reader in;
+  private char[] buf = new char[0x10000];
+  private int pos = 0;
+  private int limit = 0;
+  private boolean skipLf = false;
+
+  // current line bounds
+  int lineStart, lineEnd;
+
+  // info line groups (copied)
+  char[] name = new char[256];
+  int nameLength;
+  char[] source = new char[256];
+  int sourceLength;
+
+  // debug line groups (offsets into the buffer, valid until the next line is read)
+  int klassStart, klassEnd;
+  int superStart, superEnd;
+  int interfacesStart, interfacesEnd;     // -1 if there are no interfaces
+  int loaderStart, loaderEnd;
+
+  TraceScanner(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Reads the next line into the buffer.
+   * @return {@code false} if the end of the stream has been reached
+   */
+  boolean nextLine() throws IOException {
+    if (skipLf) {
+      if (pos == limit && !fill()) {
+        return false;
+      }
+      if (buf[pos] == '\n') {
+        pos++;
+      }
+      skipLf = false;
+    }
+    int scanned = 0;
+    while (true) {
+      for (int i = pos + scanned; i < limit; i++) {
+        char c = buf[i];
+        if (c == '\n' || c == '\r') {
+          lineStart = pos;
+          lineEnd = i;
+          pos = i + 1;
+          skipLf = (c == '\r');
+          return true;
+        }
+      }
+      scanned = limit - pos;
+      if (!fill()) {
+        if (limit > pos) {
+          lineStart = pos;
+          lineEnd = limit;
+          pos = limit;
+          return true;
+        }
+        return false;
+      }
+    }
+  }
+
+  private boolean fill() throws IOException {
+    if (pos > 0) {
+      System.arraycopy(buf, pos, buf, 0, limit - pos);
+      limit -= pos;
+      pos = 0;
+    }
+    if (limit == buf.length) {
+      buf = Arrays.copyOf(buf, buf.length * 2);
+    }
+    int read = in.read(buf, limit, buf.length - limit);
+    if (read < 0) {
+      return false;
+    }
+    limit += read;
+    return true;
+  }
+
+  /**
+   * Matches current line against
+   * {@code \[.+?\]\[info *\]\[class,load\] ((?:[^,;/\[]+?\.)*(?:[^,;/\[]+?)) source: (.+)}
+   */
+  boolean matchInfoLine() {
+    int from = lineStart, to = lineEnd;
+    if (to - from < 1 || buf[from] != '[') {
+      return false;
+    }
+    // the time decoration may span several bracketed decorations, that's why every marker occurrence is tried
+    for (int marker = indexOf(INFO_MARKER, from + 2, to);
+         marker >= 0;
+         marker = indexOf(INFO_MARKER, marker + 1, to)) {
+      if (containsLineTerminator(from + 1, marker)) {
+        return false;
+      }
+      int p = skipSpaces(marker + INFO_MARKER.length, to);
+      if (!regionMatches(p, to, TAGS)) {
+        continue;
+      }
+      p += TAGS.length;
+      for (int q = indexOf(SOURCE, p + 1, to); q >= 0; q = indexOf(SOURCE, q + 1, to)) {
+        if (!isValidName(p, q)) {
+          break;      // any further occurrence would include the same invalid char into the name
+        }
+        int sourceStart = q + SOURCE.length;
+        if (sourceStart < to && !containsLineTerminator(sourceStart, to)) {
+          nameLength = q - p;
+          name = copy(p, nameLength, name);
+          sourceLength = to - sourceStart;
+          source = copy(sourceStart, sourceLength, source);
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Matches current line against
+   * {@code \[.+?\]\[debug *\]\[class,load\]  klass: (0x[0-9a-f]+) super: (0x[0-9a-f]+)
+   * (?: interfaces: (0x[0-9a-f]+(?: 0x[0-9a-f]+)*))? loader: \[(.+?)\].*}
+   */
+  boolean matchDebugLine() {
+    int from = lineStart, to = lineEnd;
+    if (to - from < 1 || buf[from] != '[') {
+      return false;
+    }
+    for (int marker = indexOf(DEBUG_MARKER, from + 2, to);
+         marker >= 0;
+         marker = indexOf(DEBUG_MARKER, marker + 1, to)) {
+      if (containsLineTerminator(from + 1, marker)) {
+        return false;
+      }
+      int p = skipSpaces(marker + DEBUG_MARKER.length, to);
+      if (!regionMatches(p, to, TAGS) || !regionMatches(p + TAGS.length, to, KLASS)) {
+        continue;
+      }
+      klassStart = p + TAGS.length + KLASS.length - 2;
+      klassEnd = skipHexDigits(klassStart + 2, to);
+      if (klassEnd == klassStart + 2 || !regionMatches(klassEnd, to, SUPER)) {
+        continue;
+      }
+      superStart = klassEnd + SUPER.length - 2;
+      superEnd = skipHexDigits(superStart + 2, to);
+      if (superEnd == superStart + 2) {
+        continue;
+      }
+      p = superEnd;
+      interfacesStart = interfacesEnd = -1;
+      if (regionMatches(p, to, INTERFACES)) {
+        interfacesStart = p + INTERFACES.length - 2;
+        int end = skipHexDigits(interfacesStart + 2, to);
+        if (end == interfacesStart + 2) {
+          continue;
+        }
+        while (end + 3 < to
+                && buf[end] == ' ' && buf[end + 1] == '0' && buf[end + 2] == 'x' && isHexDigit(buf[end + 3])) {
+          end = skipHexDigits(end + 3, to);
+        }
+        interfacesEnd = p = end;
+      }
+      if (!regionMatches(p, to, LOADER)) {
+        continue;
+      }
+      loaderStart = p + LOADER.length;
+      loaderEnd = indexOf(']', loaderStart + 1, to);
+      if (loaderEnd < 0 || containsLineTerminator(loaderStart, to)) {
+        continue;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  //<editor-fold desc="Accessors">
+  char[] buffer() {
+    return buf;
+  }
+
+  boolean nameEquals(String value) {
+    return equal(name, nameLength, value);
+  }
+
+  boolean sourceContains(String value) {
+    return indexOf(source, sourceLength, value) >= 0;
+  }
+
+  boolean loaderEquals(String value) {
+    return (loaderEnd - loaderStart == value.length()) && regionMatches(loaderStart, loaderEnd, value);
+  }
+
+  boolean loaderContains(String value) {
+    for (int i = loaderStart; i <= loaderEnd - value.length(); i++) {
+      if (regionMatches(i, loaderEnd, value)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  String nameString() {
+    return new String(name, 0, nameLength);
+  }
+
+  String sourceString() {
+    return new String(source, 0, sourceLength);
+  }
+
+  String lineString(int start, int end) {
+    return new String(buf, start, end - start);
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="Low level helpers">
+  /**
+   * Parses hexadecimal number from given buffer range (without '0x' prefix) the same way as
+   * {@link Long#parseLong(String, int)} does, including throwing {@link NumberFormatException} on overflow.
+   */
+  static long parseHex(char[] chars, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      int digit = Character.digit(chars[i], 16);
+      if (value > (Long.MAX_VALUE - digit) / 16) {
+        throw new NumberFormatException("For input string: \"" + new String(chars, start, end - start) + "\"");
+      }
+      value = value * 16 + digit;
+    }
+    return value;
+  }
+
+  /**
+   * The same as {@link #parseHex(char[], int, int)} but for {@link Long#parseUnsignedLong(String, int)}.
+   */
+  static long parseUnsignedHex(char[] chars, int start, int end) {
+    long value = 0;
+    for (int i = start; i < end; i++) {
+      if ((value >>> 60) != 0) {
+        throw new NumberFormatException("String value " + new String(chars, start, end - start) +
+                " exceeds range of unsigned long.");
+      }
+      value = (value << 4) | Character.digit(chars[i], 16);
+    }
+    return value;
+  }
+
+  private boolean isValidName(int from, int to) {
+    for (int i = from; i < to; i++) {
+      char c = buf[i];
+      if (c == ',' || c == ';' || c == '/' || c == '[') {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return {@code true} if given range contains a char that is not matched by regex '.' (without DOTALL flag)
+   */
+  private boolean containsLineTerminator(int from, int to) {
+    for (int i = from; i < to; i++) {
+      char c = buf[i];
+      if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private int skipSpaces(int from, int to) {
+    while (from < to && buf[from] == ' ') {
+      from++;
+    }
+    return from;
+  }
+
+  private int skipHexDigits(int from, int to) {
+    while (from < to && isHexDigit(buf[from])) {
+      from++;
+    }
+    return from;
+  }
+
+  private static boolean isHexDigit(char c) {
+    return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f');
+  }
+
+  private boolean regionMatches(int from, int to, char[] pattern) {
+    if (to - from < pattern.length) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length; i++) {
+      if (buf[from + i] != pattern[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean regionMatches(int from, int to, String pattern) {
+    if (to - from < pattern.length()) {
+      return false;
+    }
+    for (int i = 0; i < pattern.length(); i++) {
+      if (buf[from + i] != pattern.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int indexOf(char[] pattern, int from, int to) {
+    for (int i = from; i <= to - pattern.length; i++) {
+      if (buf[i] == pattern[0] && regionMatches(i, to, pattern)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private int indexOf(char c, int from, int to) {
+    for (int i = from; i < to; i++) {
+      if (buf[i] == c) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int indexOf(char[] chars, int length, String value) {
+    outer:
+    for (int i = 0; i <= length - value.length(); i++) {
+      for (int j = 0; j < value.length(); j++) {
+        if (chars[i + j] != value.charAt(j)) {
+          continue outer;
+        }
+      }
+      return i;
+    }
+    return -1;
+  }
+
+  private static boolean equal(char[] chars, int length, String value) {
+    return (length == value.length()) && indexOf(chars, length, value) == 0;
+  }
+
+  private char[] copy(int from, int length, char[] target) {
+    if (target.length < length) {
+      target = new char[Math.max(length, target.length * 2)];
+    }
+    System.arraycopy(buf, from, target, 0, length);
+    return target;
+  }
+  //</editor-fold>
+}
@@ -30,29 +30,117 @@ import java.io.*;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 import java.util.jar.JarFile;
-import java.util.regex.MatchResult;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.zip.ZipEntry;
 
 /**
+ * Converter of {@code -Xlog:class+load} traces into class lists. An instance is immutable in terms of configuration
+ * (use {@code with*} methods to derive differently configured converters) and can run any number of conversions
+ * concurrently, sharing the caches of nested JARs and class checks among them. The caches are held until the
+ * converter is {@linkplain #close() closed}.
+ *
  * @author simonis
  * @author Toparvion
  */
-public class cl4cds {
+public class cl4cds implements Closeable {
+
+  private final String FatJarTmp;
+  final boolean DBG;
+  final boolean ClassesOnly;
+  final boolean CompactIDs;
+  final boolean DumpFromClassFiles;
+  private final boolean ExtractNestedJars;
+  private final String CacheDir;
 
-  public static /*final*/ String FatJarTmp = System.getProperty("io.simonis.cl4cds.fatJarTmp", "./tmp");
-  public static /*final*/ boolean DBG = Boolean.getBoolean("io.simonis.cl4cds.debug");
-  public static /*final*/ boolean ClassesOnly = Boolean.parseBoolean(System.getProperty("io.simonis.cl4cds.classesOnly", "false"));
-  public static /*final*/ boolean CompactIDs = Boolean.parseBoolean(System.getProperty("io.simonis.cl4cds.compactIDs", "true"));
+  // at least one jar has to stay open, otherwise every jar would be closed right upon opening
+  private static final int MaxOpenJars = Math.max(1, Integer.getInteger("io.simonis.cl4cds.maxOpenJars", 64));
 
-  private static final boolean DumpFromClassFiles = Boolean.getBoolean("io.simonis.cl4cds.dumpFromClassFile");
   
-  private enum Status {
+  enum Status {
     OK, ERROR, PRE_15, LOAD_ERROR, ZIP_ERROR, JAR_ERROR
   }
 
+  /** guarded by this converter's monitor, see {@link #extractFatJar(String)} */
+  private final Map<String, String> fatJarCache = new HashMap<>();
+  private final JarCache jarCache = new JarCache(MaxOpenJars);
+  /** {@code null} if the persistent cache is disabled */
+  private final ClassVersionCache versionCache;
+
+  /**
+   * Creates a converter configured by {@code io.simonis.cl4cds.*} system properties (see {@link #help(int)}).
+   */
+  public cl4cds() {
+    this(System.getProperty("io.simonis.cl4cds.fatJarTmp", "./tmp"),
+        Boolean.getBoolean("io.simonis.cl4cds.debug"),
+        Boolean.parseBoolean(System.getProperty("io.simonis.cl4cds.classesOnly", "false")),
+        Boolean.parseBoolean(System.getProperty("io.simonis.cl4cds.compactIDs", "true")),
+        Boolean.getBoolean("io.simonis.cl4cds.dumpFromClassFile"),
+        true,
+        System.getProperty("io.simonis.cl4cds.cacheDir",
+            Paths.get(System.getProperty("user.home"), ".cache", "jcudos").toString()));
+  }
+
+  private cl4cds(String fatJarTmp, boolean dbg, boolean classesOnly, boolean compactIDs, boolean dumpFromClassFiles,
+                 boolean extractNestedJars, String cacheDir) {
+    this.FatJarTmp = fatJarTmp;
+    this.DBG = dbg;
+    this.ClassesOnly = classesOnly;
+    this.CompactIDs = compactIDs;
+    this.DumpFromClassFiles = dumpFromClassFiles;
+    this.ExtractNestedJars = extractNestedJars;
+    this.CacheDir = cacheDir;
+    this.versionCache = cacheDir.isEmpty() ? null : new ClassVersionCache(Paths.get(cacheDir), dbg);
+  }
+
+  //<editor-fold desc="Configuration">
+  /**
+   * @return a converter extracting nested JARs (if needed) into given directory; the caches are not shared
+   */
+  public cl4cds withFatJarTmp(String fatJarTmp) {
+    return new cl4cds(fatJarTmp, DBG, ClassesOnly, CompactIDs, DumpFromClassFiles, ExtractNestedJars, CacheDir);
+  }
+
+  /**
+   * @return a converter printing (or not) debug output into {@code System.err}; the caches are not shared
+   */
+  public cl4cds withDebug(boolean dbg) {
+    return new cl4cds(FatJarTmp, dbg, ClassesOnly, CompactIDs, DumpFromClassFiles, ExtractNestedJars, CacheDir);
+  }
+
+  /**
+   * @return a converter emitting (or not) pure class names only; the caches are not shared
+   */
+  public cl4cds withClassesOnly(boolean classesOnly) {
+    return new cl4cds(FatJarTmp, DBG, classesOnly, CompactIDs, DumpFromClassFiles, ExtractNestedJars, CacheDir);
+  }
+
+  /**
+   * @return a converter compacting (or not) klass IDs; the caches are not shared
+   */
+  public cl4cds withCompactIDs(boolean compactIDs) {
+    return new cl4cds(FatJarTmp, DBG, ClassesOnly, compactIDs, DumpFromClassFiles, ExtractNestedJars, CacheDir);
+  }
+
+  /**
+   * @return a converter that either extracts nested JARs into {@code FatJarTmp} to print their paths into records'
+   * {@code source:} or prints the nested paths as is (e.g. {@code app.jar!/BOOT-INF/lib/x.jar}) when the records are
+   * not going to be fed to CDS directly; the caches are not shared
+   */
+  public cl4cds withNestedJarsExtraction(boolean extractNestedJars) {
+    return new cl4cds(FatJarTmp, DBG, ClassesOnly, CompactIDs, DumpFromClassFiles, extractNestedJars, CacheDir);
+  }
+
+  /**
+   * @return a converter keeping the versions of JARs' classes in given directory (see {@link ClassVersionCache}) or
+   * reading every checked class from its JAR if the directory is empty string; the caches are not shared
+   */
+  public cl4cds withCacheDir(String cacheDir) {
+    return new cl4cds(FatJarTmp, DBG, ClassesOnly, CompactIDs, DumpFromClassFiles, ExtractNestedJars, cacheDir);
+  }
+  //</editor-fold>
+
   public static void main(String... args) {
     BufferedReader in = null;
     PrintStream out = null;
@@ -87,180 +175,344 @@ public class cl4cds {
       }
     }
 
-    convert(in, out);
+    try (cl4cds converter = new cl4cds()) {
+      converter.convert(in, out);
+    } catch (IOException ioe) {
+      error("Error reading input file:\n" + ioe);
+    }
   }
 
-  public static void convert(BufferedReader in, PrintStream out) {
-    // Pattern for JVM class names (see JVMLS §4.2)
-    final String uqNameP = "((?:[^,;/\\[]+?\\.)*(?:[^,;/\\[]+?))";
-    final String timeDecoP = "\\[.+?\\]";
-    final String hexP = " (0x[0-9a-f]+)";
-    final String hexesP = " (0x[0-9a-f]+(?: 0x[0-9a-f]+)*)";
-    final String infoDecoP = "\\[info *\\Q][class,load]\\E ";
-    final String debugDecoP = "\\[debug *\\Q][class,load]\\E ";
-    Pattern firstLineP = Pattern.compile(timeDecoP + infoDecoP + uqNameP + " source: (.+)");
-    Pattern secondLineP = Pattern.compile(timeDecoP + debugDecoP + 
-        " klass:" + hexP + " super:" + hexP + "(?: interfaces:" + hexesP + ")? loader: \\[(.+?)\\]" + ".*");
-    if (DBG) {
-      System.err.println("The following two patterns are used to match the -Xlog:class+load=trace output:");
-      System.err.println("  " + firstLineP.toString());
-      System.err.println("  " + secondLineP.toString());
-    }
-    Matcher firstLine = firstLineP.matcher("");
-    Matcher secondLine = secondLineP.matcher("");
+  /**
+   * Converts given {@code -Xlog:class+load} trace into class list and prints it into given stream, one record per line.
+   * @throws IOException in case of reading error or malformed trace
+   * @see #convert(BufferedReader, Consumer)
+   */
+  public void convert(BufferedReader in, PrintStream out) throws IOException {
+    convert(in, out::println);
+  }
+
+  /**
+   * Converts given {@code -Xlog:class+load} trace into class list by means of hand-written {@link TraceScanner}.
+   * Allocates nothing per trace line except the strings that get into the output. The custom loaders' classes whose
+   * super class or interfaces have not been emitted yet are not dropped but deferred until the dependencies appear in
+   * the trace (if ever) and then emitted in dependency order.
+   * @param records receiver of class list records (without line terminators); they are pushed as soon as parsed
+   * @implNote klass IDs are tracked as numbers rather than strings which relies on the JVM printing all the klass
+   * addresses with the same width (as it always does).
+   * @throws IOException in case of reading error or malformed trace
+   */
+  public void convert(BufferedReader in, Consumer<String> records) throws IOException {
+    TraceScanner scanner = new TraceScanner(in);
     try (in) {
-      String line;
       long objectID = 0;
-      Set<String> klassSet = new HashSet<>();
+      KlassIdSet klassSet = new KlassIdSet();
       Set<String> klassNameSet = new HashSet<>();
-      while((line = in.readLine()) != null) {
-        if (firstLine.reset(line).matches()) {
-          MatchResult mr1 = firstLine.toMatchResult();
-          String name = mr1.group(1);
-          String source = mr1.group(2);
-          if (source.contains("__JVM_DefineClass__")) {
-            // skip classes which have been generated dynamically at runtime 
+      DeferredClasses deferred = new DeferredClasses();
+      long[] interfaceIDs = new long[8];
+      StringBuilder record = new StringBuilder(256);
+      while (scanner.nextLine()) {
+        if (!scanner.matchInfoLine()) {
+          continue;
+        }
+        if (scanner.sourceContains("__JVM_DefineClass__")) {
+          // skip classes which have been generated dynamically at runtime 
+          if (DBG) {
+            System.err.println("Skipping " + scanner.nameString() + " from " + scanner.sourceString() + 
+                " - reason: dynamically generated class");
+          }
+          continue;
+        }
+        if (!scanner.nextLine() || !scanner.matchDebugLine()) {
+          continue;
+        }
+        char[] line = scanner.buffer();
+        if (CompactIDs && scanner.nameEquals("java.lang.Object")) {
+          if (objectID != 0) {
+            throw new IOException("java.lang.Object can't be loaded twice");
+          }
+          objectID = TraceScanner.parseUnsignedHex(line, scanner.klassStart + 2, scanner.klassEnd) - 1;
+          if (DBG) {
+            System.err.println("java.lang.Objekt klass = " + scanner.lineString(scanner.klassStart, scanner.klassEnd) + 
+                " (" + objectID +")");
+          }
+        }
+
+        long klass = parseIDs(scanner, scanner.klassStart, scanner.klassEnd, objectID, null);
+        long parent = parseIDs(scanner, scanner.superStart, scanner.superEnd, objectID, null);
+        int interfacesCount = 0;
+        if (scanner.interfacesStart >= 0) {
+          interfacesCount = countIDs(line, scanner.interfacesStart, scanner.interfacesEnd);
+          if (interfaceIDs.length < interfacesCount) {
+            interfaceIDs = new long[interfacesCount * 2];
+          }
+          parseIDs(scanner, scanner.interfacesStart, scanner.interfacesEnd, objectID, interfaceIDs);
+        }
+
+        if (DBG) {
+          System.err.println("loader = " + scanner.lineString(scanner.loaderStart, scanner.loaderEnd));
+        }
+
+        if (scanner.loaderEquals("NULL class loader") ||
+            scanner.loaderContains("of <bootloader>") || // this is JDK 11 syntax
+            scanner.loaderContains("of 'bootstrap'") || // this is JDK 12 syntax
+            scanner.loaderContains("jdk/internal/loader/ClassLoaders$PlatformClassLoader" /* && source == jrt image */) ||
+            scanner.loaderContains("jdk/internal/loader/ClassLoaders$AppClassLoader" /* && source == jar file */)) {
+          record.setLength(0);
+          appendSlashed(record, scanner.name, scanner.nameLength);
+          if (!ClassesOnly) {
+            record.append(" id: ");
+            appendIDs(record, scanner, scanner.klassStart, scanner.klassEnd, objectID);
+          }
+          records.accept(record.toString());
+          klassSet.add(klass);
+          klassNameSet.add(scanner.nameString());
+          emitReleased(klass, records, klassSet, klassNameSet, deferred);
+        }
+        else {
+          // Custom class loader (currently only supported if classes are loaded from jar files ?)
+          String name = scanner.nameString();
+          String source = scanner.sourceString();
+          String sourceFile = null;
+          if (source.startsWith("file:") /* && source.endsWith(".jar") */) {
+            sourceFile = source.substring("file:".length());
+          }
+          else if (source.startsWith("jar:file:") && source.endsWith("!/")) {
+            sourceFile = source.substring("jar:file:".length(), source.length() - 2);
+          }
+          else {
             if (DBG) {
-              System.err.println("Skipping " + name + " from " + source + " - reason: dynamically generated class");
+              System.err.println("Skipping " + name + " from " + source + " - reason: unknown source format");
             }
             continue;
           }
-          if ((line = in.readLine()) != null &&
-              secondLine.reset(line).matches()) {
-            MatchResult mr2 = secondLine.toMatchResult();
-            String klass = mr2.group(1);
-            String parent = mr2.group(2);
-            String interf = mr2.group(3);
-            String loader = mr2.group(4);
-
-            if (CompactIDs && "java.lang.Object".equals(name)) {
-              if (objectID != 0) {
-                System.err.println("java.lang.Object can't be loaded twice");
-                System.exit(-1);
-              }
-              objectID = Long.parseUnsignedLong(klass.substring(2), 16) - 1;
+          if (!DumpFromClassFiles)
+            if (sourceFile.startsWith("/") && sourceFile.charAt(2) == ':') {
+              sourceFile = sourceFile.substring(1);   // to remove leading slash from paths like '/C:/Users/...'
+            }
+            if (Files.isDirectory(Paths.get(sourceFile))) {
               if (DBG) {
-                System.err.println("java.lang.Objekt klass = " + klass + " (" + objectID +")");
+                System.err.println("Skipping " + name + " from " + sourceFile + " - reason: loaded from class file (try '-Dio.simonis.cl4cds.dumpFromClassFile=true')");
               }
+              continue;
             }
+          Status ret;
 
-            if (CompactIDs) {
-              klass = compact(klass, objectID);
-              parent = compact(parent, objectID);
-              if (interf != null) {
-                interf = compact(interf, objectID);
+          // nested jars of a fat jar are checked in place, i.e. with no extraction (see below)
+          if ((ret = checkClass(name.replace('.', '/'), sourceFile)) != Status.OK) {
+            if (DBG) {
+              switch (ret) {
+              case PRE_15 : 
+                System.err.println("Skipping " + name + " from " + sourceFile + " - reason: class is pre 1.5");
+                break;
+              case LOAD_ERROR:
+              case ZIP_ERROR:
+              case JAR_ERROR:
+                System.err.println("Skipping " + name + " from " + sourceFile + " - reason: can't load (maybe generated?))");
+                break;
+              case ERROR:
+                System.err.println("Skipping " + name + " from " + sourceFile + " - reason: unknown source");
+                break;
               }
             }
-
+            continue;
+          }
+          if (klassNameSet.contains(name)) {
             if (DBG) {
-              System.err.println("loader = " + loader);
+              System.err.println("Skipping " + name + " from " + sourceFile + " - reason: already dumped");
             }
-
-            if ("NULL class loader".equals(loader) ||
-                loader.contains("of <bootloader>") || // this is JDK 11 syntax
-                loader.contains("of 'bootstrap'") || // this is JDK 12 syntax
-                loader.contains("jdk/internal/loader/ClassLoaders$PlatformClassLoader" /* && source == jrt image */) ||
-                loader.contains("jdk/internal/loader/ClassLoaders$AppClassLoader" /* && source == jar file */)) {
-              out.print(name.replace('.', '/'));
-              if (!ClassesOnly) {
-                out.print(" id: " + klass);
-              }
-              out.println();
-              klassSet.add(klass);
-              klassNameSet.add(name);
+            continue;
+          }
+          boolean resolved = klassSet.contains(parent) && klassSet.containsAll(interfaceIDs, interfacesCount);
+          String recordSource = null;
+          if (resolved && (recordSource = recordSource(name, sourceFile)) == null) {
+            continue;
+          }
+          record.setLength(0);
+          appendSlashed(record, scanner.name, scanner.nameLength);
+          if (!ClassesOnly) {
+            record.append(" id: ");
+            appendIDs(record, scanner, scanner.klassStart, scanner.klassEnd, objectID);
+            record.append(" super: ");
+            appendIDs(record, scanner, scanner.superStart, scanner.superEnd, objectID);
+            if (scanner.interfacesStart >= 0) {
+              record.append(" interfaces: ");
+              appendIDs(record, scanner, scanner.interfacesStart, scanner.interfacesEnd, objectID);
             }
-            else {
-              // Custom class loader (currently only supported if classes are loaded from jar files ?)
-              String sourceFile = null;
-              if (source != null && source.startsWith("file:") /* && source.endsWith(".jar") */) {
-                sourceFile = source.substring("file:".length());
-              }
-              else if (source != null && source.startsWith("jar:file:") && source.endsWith("!/")) {
-                sourceFile = source.substring("jar:file:".length(), source.length() - 2);
-              }
-              else {
-                if (DBG) {
-                  System.err.println("Skipping " + name + " from " + source + " - reason: unknown source format");
-                }
-                continue;
-              }
-              if (!DumpFromClassFiles)
-                if (sourceFile.startsWith("/") && sourceFile.charAt(2) == ':') {
-                  sourceFile = sourceFile.substring(1);   // to remove leading slash from paths like '/C:/Users/...'
-                }
-                if (Files.isDirectory(Paths.get(sourceFile))) {
-                  if (DBG) {
-                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: loaded from class file (try '-Dio.simonis.cl4cds.dumpFromClassFile=true')");
-                  }
-                  continue;
-                }
-              Status ret;
-
-              if (sourceFile.endsWith(".jar") && sourceFile.contains(".jar!")) {
-                // This is a fat jar file, so let's extract it
-                sourceFile = extractFatJar(sourceFile);
-              }
-              if ((ret = checkClass(name.replace('.', '/'), sourceFile)) != Status.OK) {
-                if (DBG) {
-                  switch (ret) {
-                  case PRE_15 : 
-                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: class is pre 1.5");
-                    break;
-                  case LOAD_ERROR:
-                  case ZIP_ERROR:
-                  case JAR_ERROR:
-                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: can't load (maybe generated?))");
-                    break;
-                  case ERROR:
-                    System.err.println("Skipping " + name + " from " + sourceFile + " - reason: unknown source");
-                    break;
-                  }
-                }
-                continue;
-              }
-              if (klassNameSet.contains(name)) {
-                if (DBG) {
-                  System.err.println("Skipping " + name + " from " + sourceFile + " - reason: already dumped");
-                }
-                continue;
-              }
-              List<String> deps = new LinkedList<>();
-              deps.add(parent);
-              if (interf != null) {
-                deps.addAll(Arrays.asList(interf.split("\\s")));
-              }
-              if (klassSet.containsAll(deps)) {
-                out.print(name.replace('.', '/'));
-                if (!ClassesOnly) {
-                  out.print(" id: " + klass + " super: " + parent);
-                  if (interf != null) {
-                    out.print(" interfaces: " + interf);
-                  }
-                  out.print(" source: " + sourceFile);
-                }
-                out.println();
-                klassSet.add(klass);
-                klassNameSet.add(name);
-              }
-              else {
-                if (DBG) {
-                  System.err.println("Skipping " + name + " from " + sourceFile + " - reason: failed dependencies");
-                }
-              }
+          }
+          if (resolved) {
+            if (!ClassesOnly) {
+              record.append(" source: ").append(recordSource);
             }
+            records.accept(record.toString());
+            klassSet.add(klass);
+            klassNameSet.add(name);
+            emitReleased(klass, records, klassSet, klassNameSet, deferred);
           }
+          else {
+            // the dependencies may still come later, e.g. when classes are loaded in parallel
+            deferred.defer(new DeferredClass(klass, name, record.toString(), sourceFile),
+                parent, interfaceIDs, interfacesCount, klassSet);
+            if (DBG) {
+              System.err.println("Deferring " + name + " from " + sourceFile + " - reason: unresolved dependencies");
+            }
+          }
+        }
+      }
+      if (DBG) {
+        deferred.forEachUnresolved(clazz -> System.err.println("Skipping " + clazz.name + " from " + 
+            clazz.sourceFile + " - reason: failed dependencies"));
+      }
+    }
+  }
+
+  /**
+   * @return the source to print into the record of given custom loader's class or {@code null} if the class can't be
+   * dumped from it
+   */
+  private String recordSource(String name, String sourceFile) {
+    if (!ClassesOnly && ExtractNestedJars && isNestedJar(sourceFile)) {
+      // CDS can't load classes from nested jars, so this one has to be extracted after all
+      String extractedFile = extractFatJar(sourceFile);
+      if (extractedFile.equals(sourceFile)) {
+        if (DBG) {
+          System.err.println("Skipping " + name + " from " + sourceFile + " - reason: can't extract nested jar");
+        }
+        return null;
+      }
+      return extractedFile;
+    }
+    return sourceFile;
+  }
+
+  /**
+   * Emits (in dependency order) all the deferred classes whose dependencies have become resolved with emission of
+   * given class.
+   */
+  private void emitReleased(long klass, Consumer<String> records, KlassIdSet klassSet, Set<String> klassNameSet,
+                            DeferredClasses deferred) {
+    if (deferred.isEmpty()) {
+      return;
+    }
+    Deque<DeferredClass> ready = deferred.release(klass);
+    DeferredClass clazz;
+    while ((clazz = ready.poll()) != null) {
+      if (klassNameSet.contains(clazz.name)) {
+        if (DBG) {
+          System.err.println("Skipping " + clazz.name + " from " + clazz.sourceFile + " - reason: already dumped");
         }
+        continue;
       }
+      String recordSource = recordSource(clazz.name, clazz.sourceFile);
+      if (recordSource == null) {
+        continue;
+      }
+      records.accept(ClassesOnly ? clazz.record : (clazz.record + " source: " + recordSource));
+      klassSet.add(clazz.klass);
+      klassNameSet.add(clazz.name);
+      if (DBG) {
+        System.err.println("Rescued " + clazz.name + " from " + clazz.sourceFile + " - its dependencies resolved");
+      }
+      deferred.release(clazz.klass);      // may append more classes to the ready ones
+    }
+  }
+
+  /**
+   * Parses whitespace separated klass IDs from given range of current trace line. With {@link #CompactIDs} turned on,
+   * the IDs get compacted (i.e. turned into 32-bit offsets from {@code java.lang.Object}'s klass), otherwise they are
+   * taken as is.
+   * @param target array to store the parsed IDs into; may be {@code null} if only one ID is expected
+   * @return the first parsed ID
+   */
+  private long parseIDs(TraceScanner scanner, int start, int end, long objectID, long[] target) {
+    char[] line = scanner.buffer();
+    long first = 0;
+    int count = 0;
+    for (int tokenStart = start; tokenStart < end; ) {
+      int tokenEnd = tokenStart;
+      while (tokenEnd < end && line[tokenEnd] != ' ') {
+        tokenEnd++;
+      }
+      long id;
+      if (CompactIDs) {
+        long rawID = TraceScanner.parseHex(line, tokenStart + 2, tokenEnd);
+        int compactID = (rawID == 0) ? 0 : (int)(rawID - objectID);
+        if (compactID < 0) {
+          System.err.println("Negative klass ID (" + scanner.lineString(start, end) + ", " + compactID + "). Try: -Dio.simonis.cl4cds.compactIDs=false");
+        }
+        id = compactID;
+      } else {
+        id = TraceScanner.parseUnsignedHex(line, tokenStart + 2, tokenEnd);
+      }
+      if (count == 0) {
+        first = id;
+      }
+      if (target != null) {
+        target[count] = id;
+      }
+      count++;
+      tokenStart = tokenEnd + 1;
     }
-    catch (IOException ioe) {
-      System.err.println("Error reading input file:\n" + ioe);
+    if (DBG && CompactIDs) {
+      StringBuilder compact = new StringBuilder();
+      appendIDs(compact, scanner, start, end, objectID);
+      System.err.println("Compacting " + scanner.lineString(start, end) + " to " + compact);
     }
+    return first;
+  }
 
+  private static int countIDs(char[] line, int start, int end) {
+    int count = 1;
+    for (int i = start; i < end; i++) {
+      if (line[i] == ' ') {
+        count++;
+      }
+    }
+    return count;
   }
 
-  static HashMap<String, String> fatJarCache = new HashMap<>();
+  /**
+   * Appends klass IDs from given range of current trace line to the record in the same form as the original 
+   * implementation prints them, i.e. either compacted or as is.
+   */
+  private void appendIDs(StringBuilder record, TraceScanner scanner, int start, int end, long objectID) {
+    char[] line = scanner.buffer();
+    if (!CompactIDs) {
+      record.append(line, start, end - start);
+      return;
+    }
+    for (int tokenStart = start; tokenStart < end; ) {
+      int tokenEnd = tokenStart;
+      while (tokenEnd < end && line[tokenEnd] != ' ') {
+        tokenEnd++;
+      }
+      long rawID = TraceScanner.parseHex(line, tokenStart + 2, tokenEnd);
+      if (tokenStart != start) {
+        record.append(' ');
+      }
+      record.append((rawID == 0) ? 0 : (int)(rawID - objectID));
+      tokenStart = tokenEnd + 1;
+    }
+  }
 
-  private static void mkdir(File dir) {
+  private static void appendSlashed(StringBuilder record, char[] name, int length) {
+    for (int i = 0; i < length; i++) {
+      char c = name[i];
+      record.append(c == '.' ? '/' : c);
+    }
+  }
+
+  /**
+   * Releases the caches. The converter must not be used afterwards.
+   */
+  @Override
+  public void close() {
+    jarCache.clear();
+    if (versionCache != null) {
+      versionCache.clear();
+    }
+  }
+
+  private void mkdir(File dir) {
     if (dir.isFile()) {
       System.err.println("Error: " + dir + " is not a directory!");
     }
@@ -276,7 +528,11 @@ public class cl4cds {
     }
   }
 
-  private static String extractFatJar(String source) {
+  private static boolean isNestedJar(String source) {
+    return source.endsWith(".jar") && source.contains(".jar!");
+  }
+
+  synchronized String extractFatJar(String source) {
     String cache = fatJarCache.get(source);
     if (cache != null) {
       return cache;
@@ -318,7 +574,7 @@ public class cl4cds {
     return source;
   }
 
-  private static Status checkClass(String name, String source) {
+  Status checkClass(String name, String source) {
     if (Files.isDirectory(Paths.get(source))) {
       try (InputStream in = new FileInputStream(source + name + ".class")) {
         if (classVersion(in) < 49) return Status.PRE_15;
@@ -330,22 +586,52 @@ public class cl4cds {
         }
       }
     }
-    else if (source.endsWith(".jar") && Files.isRegularFile(Paths.get(source))) {
-      try (JarFile jar = new JarFile(source)) {
-        ZipEntry ze = jar.getEntry(name + ".class");
-        if (ze != null) {
-          if (classVersion(jar.getInputStream(ze)) < 49) return Status.PRE_15;
-          return Status.OK;
-        }
-        else if (DBG) {
-          System.err.println("Can't get zip entry " + name + ".class" + " from jar file " + source);
-          return Status.ZIP_ERROR;
+    else if (source.endsWith(".jar") && jarCache.isJarFile(source)) {
+      Map<String, Status> jarStatuses = jarCache.statuses(source);
+      Status status = jarStatuses.get(name);
+      if (status == null) {
+        status = checkJarClass(name, source);
+        jarStatuses.put(name, status);
+      }
+      return status;
+    }
+    if (DBG) {
+      System.err.println("Can't check " + name + " from " + source);
+    }
+    return Status.ERROR;
+  }
+
+  private Status checkJarClass(String name, String source) {
+    try {
+      Integer version;
+      MappedZip mapped = (versionCache != null) ? jarCache.openMapped(source) : null;
+      if (mapped != null) {
+        version = versionCache.versions(mapped).get(name);
+        if (version != null && version == ClassVersionCache.TRUNCATED) {
+          throw new EOFException("Truncated class file " + name + ".class");
         }
-      } catch (IOException e) {
-        if (DBG) {
-          System.err.println("Can't check class " + name + " from jar file " + source + "\n" + e);
-          return Status.JAR_ERROR;
+      } else {
+        InputStream in;
+        if (isNestedJar(source)) {
+          in = jarCache.openNested(source).getInputStream(name + ".class");
+        } else {
+          byte[] header = jarCache.readHeader(source, name + ".class");
+          in = (header != null) ? new ByteArrayInputStream(header) : null;
         }
+        version = (in != null) ? classVersion(in) : null;
+      }
+      if (version != null) {
+        if (version < 49) return Status.PRE_15;
+        return Status.OK;
+      }
+      else if (DBG) {
+        System.err.println("Can't get zip entry " + name + ".class" + " from jar file " + source);
+        return Status.ZIP_ERROR;
+      }
+    } catch (IOException e) {
+      if (DBG) {
+        System.err.println("Can't check class " + name + " from jar file " + source + "\n" + e);
+        return Status.JAR_ERROR;
       }
     }
     if (DBG) {
@@ -354,7 +640,7 @@ public class cl4cds {
     return Status.ERROR;
   }
 
-  private static int classVersion(InputStream in) throws IOException {
+  private int classVersion(InputStream in) throws IOException {
     try (DataInputStream dis = new DataInputStream(in)) {
       int magic = dis.readInt();
       if (magic != 0xcafebabe) {
@@ -369,21 +655,312 @@ public class cl4cds {
     }
   }
 
-  private static String compact(String ids, long objectID) {
-    String compact = "";
-    Scanner scan = new Scanner(ids);
-    while (scan.hasNext()) {
-      long id = Long.parseLong(scan.next().substring(2), 16);
-      int compactID = (id == 0) ? 0 : (int)(id - objectID);
-      if (compactID < 0) {
-        System.err.println("Negative klass ID (" + ids + ", " + compactID + "). Try: -Dio.simonis.cl4cds.compactIDs=false");
+  /**
+   * Keeps up to given number of recently used {@link JarFile}s open (so that their central directories are not parsed
+   * again for every class) along with the results of all the class checks made against every JAR. The results outlive
+   * the eviction of their JAR from the cache; an evicted JAR that is being read is closed by its last reader. Jars
+   * nested into fat jars (as well as all the jars when {@link ClassVersionCache} is enabled, unless they can't be
+   * mapped) are read in place through {@link MappedZip}s.
+   * All of these are held until the converter is closed and are safe to be used by concurrent conversions.
+   */
+  private final class JarCache {
+    private final Map<String, OpenJar> openJars;
+    private final Map<String, Map<String, Status>> jarStatuses = new ConcurrentHashMap<>();
+    /** memory-mapped fat jars and the jars nested into them; they take no file handles and are read without locking */
+    private final Map<String, MappedZip> mappedZips = new ConcurrentHashMap<>();
+    /** plain jars that failed to be mapped */
+    private final Set<String> unmappableJars = ConcurrentHashMap.newKeySet();
+
+    JarCache(int maxOpenJars) {
+      openJars = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, OpenJar> eldest) {
+          if (size() <= maxOpenJars) {
+            return false;
+          }
+          evict(eldest.getValue());
+          return true;
+        }
+      };
+    }
+
+    boolean isJarFile(String source) {
+      if (jarStatuses.containsKey(source)) {
+        return true;
       }
-      compact += ("".equals(compact) ? "" : " ") + compactID;
+      int index = source.indexOf('!');
+      return Files.isRegularFile(Paths.get((index < 0) ? source : source.substring(0, index)));
     }
-    if (DBG) {
-      System.err.println("Compacting " + ids + " to " + compact);
+
+    Map<String, Status> statuses(String source) {
+      return jarStatuses.computeIfAbsent(source, jar -> new ConcurrentHashMap<>());
+    }
+
+    /**
+     * Reads the first 8 bytes (i.e. magic and version) of given entry. Only the lookup of the jar is done under the
+     * lock; the read itself is not, so different jars (and even the same one) can be read in parallel. The jar is 
+     * referenced while being read, so that its eviction by another thread doesn't close it under the reader's feet.
+     * @return the bytes read (may be less than 8) or {@code null} if there is no such entry
+     */
+    byte[] readHeader(String source, String entryName) throws IOException {
+      OpenJar openJar = acquire(source);
+      try {
+        ZipEntry ze = openJar.jar.getEntry(entryName);
+        if (ze == null) {
+          return null;
+        }
+        try (InputStream in = openJar.jar.getInputStream(ze)) {
+          return in.readNBytes(8);
+        }
+      } finally {
+        release(openJar);
+      }
+    }
+
+    private synchronized OpenJar acquire(String source) throws IOException {
+      OpenJar openJar = openJars.get(source);
+      if (openJar == null) {
+        openJar = new OpenJar(new JarFile(source));
+        openJar.readers++;          // before putting, so that the jar can't be closed by its own insertion
+        openJars.put(source, openJar);
+      } else {
+        openJar.readers++;
+      }
+      return openJar;
+    }
+
+    private synchronized void release(OpenJar openJar) {
+      if (--openJar.readers == 0 && openJar.evicted) {
+        close(openJar.jar);
+      }
+    }
+
+    /**
+     * Closes given jar or, if it's being read at the moment, leaves it to be closed by its last reader.
+     */
+    private void evict(OpenJar openJar) {
+      openJar.evicted = true;
+      if (openJar.readers == 0) {
+        close(openJar.jar);
+      }
+    }
+
+    /**
+     * @param source either plain or nested jar path
+     * @return mapped jar or {@code null} if given plain jar can't be mapped (e.g. it's a ZIP64 archive) and thus has to
+     * be read as {@link JarFile}
+     */
+    MappedZip openMapped(String source) throws IOException {
+      if (isNestedJar(source)) {
+        return openNested(source);
+      }
+      MappedZip mapped = mappedZips.get(source);
+      if (mapped != null || unmappableJars.contains(source)) {
+        return mapped;
+      }
+      synchronized (this) {
+        mapped = mappedZips.get(source);
+        if (mapped == null && !unmappableJars.contains(source)) {
+          try {
+            mapped = MappedZip.map(Paths.get(source));
+            mappedZips.put(source, mapped);
+          } catch (IOException e) {
+            unmappableJars.add(source);
+            if (DBG) {
+              System.err.println("Can't map jar file " + source + " (" + e + "), reading it as is");
+            }
+          }
+        }
+        return mapped;
+      }
+    }
+
+    /**
+     * @param source nested jar path in the form of {@code outer.jar!/inner/path.jar}
+     */
+    MappedZip openNested(String source) throws IOException {
+      MappedZip nested = mappedZips.get(source);
+      if (nested != null) {
+        return nested;
+      }
+      synchronized (this) {
+        nested = mappedZips.get(source);
+        if (nested != null) {
+          return nested;
+        }
+        int index = source.indexOf('!');
+        String mainJar = source.substring(0, index);
+        String childJar = source.substring(index + 2);
+        MappedZip outer = mappedZips.get(mainJar);
+        if (outer == null) {
+          outer = MappedZip.map(Paths.get(mainJar));
+          mappedZips.put(mainJar, outer);
+        }
+        nested = outer.nested(childJar);
+        if (nested == null) {
+          throw new FileNotFoundException("Can't find " + childJar + " in " + mainJar);
+        }
+        mappedZips.put(source, nested);
+        return nested;
+      }
+    }
+
+    synchronized void clear() {
+      openJars.values().forEach(this::evict);
+      openJars.clear();
+      jarStatuses.clear();
+      mappedZips.clear();
+      unmappableJars.clear();
+    }
+
+    private void close(JarFile jar) {
+      try {
+        jar.close();
+      } catch (IOException e) {
+        if (DBG) {
+          System.err.println("Can't close jar file " + jar.getName() + "\n" + e);
+        }
+      }
+    }
+
+    /**
+     * A jar along with the number of threads reading it at the moment. Guarded by the cache's lock.
+     */
+    private final class OpenJar {
+      final JarFile jar;
+      int readers;
+      boolean evicted;
+
+      OpenJar(JarFile jar) {
+        this.jar = jar;
+      }
+    }
+  }
+
+  /**
+   * A custom loader's class waiting for its dependencies to be emitted. Its record is complete except the source.
+   */
+  private static final class DeferredClass {
+    final long klass;
+    final String name;
+    final String record;
+    final String sourceFile;
+    int unresolvedCount;
+
+    DeferredClass(long klass, String name, String record, String sourceFile) {
+      this.klass = klass;
+      this.name = name;
+      this.record = record;
+      this.sourceFile = sourceFile;
+    }
+  }
+
+  /**
+   * Deferred classes indexed by the klass IDs they wait for. A class becomes ready once all its IDs are released.
+   */
+  private static final class DeferredClasses {
+    private final Map<Long, List<DeferredClass>> waiting = new HashMap<>();
+    private final Deque<DeferredClass> ready = new ArrayDeque<>();
+
+    void defer(DeferredClass clazz, long parent, long[] interfaceIDs, int interfacesCount, KlassIdSet klassSet) {
+      wait(clazz, parent, klassSet);
+      for (int i = 0; i < interfacesCount; i++) {
+        wait(clazz, interfaceIDs[i], klassSet);
+      }
+    }
+
+    private void wait(DeferredClass clazz, long id, KlassIdSet klassSet) {
+      if (klassSet.contains(id)) {
+        return;
+      }
+      List<DeferredClass> waiters = waiting.computeIfAbsent(id, key -> new ArrayList<>(2));
+      if (!waiters.contains(clazz)) {     // the same ID may be listed twice
+        waiters.add(clazz);
+        clazz.unresolvedCount++;
+      }
+    }
+
+    boolean isEmpty() {
+      return waiting.isEmpty();
+    }
+
+    /**
+     * @return the queue of classes that are ready to be emitted, including those released by the given ID
+     */
+    Deque<DeferredClass> release(long id) {
+      List<DeferredClass> waiters = waiting.remove(id);
+      if (waiters != null) {
+        for (DeferredClass clazz : waiters) {
+          if (--clazz.unresolvedCount == 0) {
+            ready.add(clazz);
+          }
+        }
+      }
+      return ready;
+    }
+
+    void forEachUnresolved(Consumer<DeferredClass> action) {
+      Set<DeferredClass> unresolved = Collections.newSetFromMap(new IdentityHashMap<>());
+      waiting.values().forEach(unresolved::addAll);
+      unresolved.forEach(action);
+    }
+  }
+
+  /**
+   * An open addressing hash set of klass IDs; spares boxing which {@code Set<Long>} would require.
+   */
+  private static final class KlassIdSet {
+    private long[] keys = new long[1 << 12];
+    private boolean[] used = new boolean[1 << 12];
+    private int size = 0;
+
+    void add(long key) {
+      if (size * 2 >= keys.length) {
+        grow();
+      }
+      int slot = find(keys, used, key);
+      if (!used[slot]) {
+        keys[slot] = key;
+        used[slot] = true;
+        size++;
+      }
+    }
+
+    boolean contains(long key) {
+      return used[find(keys, used, key)];
+    }
+
+    boolean containsAll(long[] keys, int count) {
+      for (int i = 0; i < count; i++) {
+        if (!contains(keys[i])) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private static int find(long[] keys, boolean[] used, long key) {
+      int mask = keys.length - 1;
+      int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+      while (used[slot] && keys[slot] != key) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    private void grow() {
+      long[] oldKeys = keys;
+      boolean[] oldUsed = used;
+      keys = new long[oldKeys.length * 2];
+      used = new boolean[oldKeys.length * 2];
+      for (int i = 0; i < oldKeys.length; i++) {
+        if (oldUsed[i]) {
+          int slot = find(keys, used, oldKeys[i]);
+          keys[slot] = oldKeys[i];
+          used[slot] = true;
+        }
+      }
     }
-    return compact;
   }
 
   private static void error(String msg) {
@@ -417,6 +994,13 @@ public class cl4cds {
     System.out.println("       extracted to <directory> (defaults to './tmp')");
     System.out.println("    -Dio.simonis.cl4cds.classesOnly=false :");
     System.out.println("       Inlcude pure class FQ names into output (without IDs, super, interface, etc)");
+    System.out.println("    -Dio.simonis.cl4cds.maxOpenJars=<count> :");
+    System.out.println("       Keep at most <count> jar files open while checking the classes loaded by custom");
+    System.out.println("       class loaders; values below 1 are treated as 1 (defaults to '64')");
+    System.out.println("    -Dio.simonis.cl4cds.cacheDir=<directory> :");
+    System.out.println("       Keep the versions of all the classes of every checked jar file in <directory>");
+    System.out.println("       so that the jar is not read again until its content changes; empty value");
+    System.out.println("       disables the cache (defaults to '~/.cache/jcudos')");
     System.out.println();
     System.exit(status);
   }
@@ -58,10 +58,13 @@ public final class Constants {
   public static final Path SHARED_CLASS_LIST_PATH = SHARED_ROOT.resolve("list/classes.list");
   public static final Path SHARED_ARGFILE_PATH = SHARED_ROOT.resolve("list/classpath.arg");
   public static final Path SHARED_ARCHIVE_PATH = SHARED_ROOT.resolve("jsa/classes.jsa");
+  public static final Path SHARED_JAR_PATH = SHARED_ROOT.resolve("lib/shared.jar");
 
   public static final String SPRING_BOOT_START_CLASS_ATTRIBUTE = "Start-Class";
   public static final String APPCDS_ARGFILE_NAME = "appcds.arg";
   public static final String START_CLASS_FILE_NAME = "start-class.txt";
+  /** The name of both Spring Boot's classpath index inside fat JARs and its copy next to the extracted libs */
+  public static final String CLASSPATH_INDEX_FILE_NAME = "classpath.idx";
   public static final Attributes.Name START_CLASS_ATTRIBUTE_NAME = new Attributes.Name(SPRING_BOOT_START_CLASS_ATTRIBUTE);
   
   public static final String JDK_MAIN_CLASS_ATTRIBUTE = "Main-Class";
@@ -71,9 +74,22 @@ public final class Constants {
   public static final String WEB_INF_DIR = "WEB-INF/";
 
   public static final String LIB_DIR_NAME = "lib";
+  public static final String MERGED_JAR_SUFFIX = ".merged.jar";
   public static final String LOCK_FILE_NAME = ".lock";
 
   public enum ListConversion { ON, OFF, AUTO }
+
+  /**
+   * Format of class list files written by jCuDoS.
+   * @see tech.toparvion.util.jcudos.util.BinaryClassList
+   */
+  public enum ListFormat { TEXT, BINARY }
+
+  /**
+   * Format of the machine-readable report written by {@code estimate} command.
+   * @see tech.toparvion.util.jcudos.model.estimate.EstimationWriter
+   */
+  public enum EstimationFormat { JSON, CSV, PROMETHEUS }
   
   /**
    * A combination of tags used in JVM Unified Logging Framework when tracing the class loading.
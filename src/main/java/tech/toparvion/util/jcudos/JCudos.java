@@ -3,14 +3,21 @@ package tech.toparvion.util.jcudos;
 import picocli.CommandLine;
 import picocli.CommandLine.Option;
 import tech.toparvion.util.jcudos.infra.JCudosVersionProvider;
+import tech.toparvion.util.jcudos.model.collate.ClassRecordWriter;
+import tech.toparvion.util.jcudos.model.collate.CollationResult;
 import tech.toparvion.util.jcudos.model.exception.JCudosException;
 import tech.toparvion.util.jcudos.subcommand.*;
+import tech.toparvion.util.jcudos.util.ClasspathOptimizer;
+import tech.toparvion.util.jcudos.util.JarMerger;
 import tech.toparvion.util.jcudos.util.PathUtils;
+import tech.toparvion.util.jcudos.util.RawZipWriter;
 
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.file.*;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -34,6 +41,7 @@ import static tech.toparvion.util.jcudos.util.GeneralUtils.suppress;
                 ListAllClasses.class,
                 ListMergedClasses.class,
                 Collate.class,
+                ConvertList.class,
                 CopyFilesByList.class,
                 Evert.class,
                 Convert.class,
@@ -62,6 +70,22 @@ public class JCudos implements Runnable {
   
   @Option(names = {"--work-dir", "-w"}, paramLabel = "<workDir>")
   private Path root = Paths.get(System.getProperty("user.dir"));
+
+  @Option(names = {"--custom-loaders", "-L"}, description = "Keep the records of classes loaded by custom class " +
+          "loaders (e.g. Spring Boot's one) in the shared class list, pointing them to the shared libs' copies")
+  private boolean customLoaders = false;
+
+  @Option(names = {"--store", "-s"}, description = "Repack applications' private libs (including the slim JARs) " +
+          "with uncompressed entries to save the CPU time of inflating the classes missing in the shared archive")
+  private boolean store = false;
+
+  @Option(names = {"--merge-private", "-m"}, description = "Merge applications' slim JARs and private libs into a " +
+          "single JAR per application to reduce the number of classpath entries the JVM opens at startup")
+  private boolean mergePrivateLibs = false;
+
+  @Option(names = {"--merge-shared", "-M"}, description = "Merge the common libs into a single shared JAR to be put " +
+          "on the archive's and applications' classpath instead of them. Not compatible with --custom-loaders.")
+  private boolean mergeSharedLibs = false;
   //</editor-fold>
   
   //<editor-fold desc="Entry point">
@@ -82,13 +106,16 @@ public class JCudos implements Runnable {
       outDir = occupyOutDir(root, outDir);
 
       // Stage A - Process class lists
-      processClassLists(root, classListGlob, exclusionGlobs, outDir);
+      CollationResult classListsResult = processClassLists(root, classListGlob, exclusionGlobs, outDir);
+      var classpathOptimizer = createClasspathOptimizer(classListsResult);
       // Stage B - Process every found 'fat' JAR
       List<String> libDirs = processFatJars(root, fatJarsGlob, exclusionGlobs, outDir);
       // Stage C - Create common (shared) archive
-      List<Path> commonLibPaths = createCommonArchive(libDirs, outDir);
+      Set<String> commonLibNames = findCommonLibs(libDirs);
+      List<Path> sharedClasspath = createCommonArchive(libDirs, commonLibNames, outDir, classListsResult, 
+              classpathOptimizer);
       // Stage D - Prepare application for running with AppCDS
-      preparePrivateArgFiles(libDirs, commonLibPaths);
+      preparePrivateArgFiles(libDirs, commonLibNames, sharedClasspath, classpathOptimizer);
       
       log.log(INFO, "{0} execution took {1} ms.", MY_PRETTY_NAME, ManagementFactory.getRuntimeMXBean().getUptime());
       suppress(() -> Files.deleteIfExists(outDir.resolve(LOCK_FILE_NAME)));
@@ -121,26 +148,59 @@ public class JCudos implements Runnable {
    * @param exclusionGlobs a set of excluding globs
    * @param outDir output directory path, e.g. {@code _shared/}
    * @throws IOException in case of any IO error
+   * @return the result of class lists collation
    */
-  private void processClassLists(Path root, List<String> classListGlob, Set<String> exclusionGlobs, Path outDir) throws IOException {
+  private CollationResult processClassLists(Path root, List<String> classListGlob, Set<String> exclusionGlobs, 
+                                            Path outDir) throws IOException {
     // A.1 - find common part among all class lists
     Collate collateCommand = new Collate();
     collateCommand.setArgs(classListGlob);
     collateCommand.setRoot(root);
     collateCommand.setExclusionGlobs(exclusionGlobs);
+    collateCommand.setCustomLoaders(customLoaders);
     var result = collateCommand.call();
     if (result == null) {
       log.log(ERROR, "No class lists found by Glob pattern ''{0}''. Exiting.", classListGlob);
       throw new JCudosException();
     }
     
-    // A.2 - save the common part as separate list in output directory
+    // A.2 - save the common part as separate list in output directory 
+    if (!customLoaders) {   // otherwise it is deferred until the common libs are copied (see Stage C) 
+      saveCommonClassList(result, outDir);
+    }
+    return result;
+  }
+
+  /**
+   * A.2 - save the common part of class lists as separate list in output directory
+   */
+  private void saveCommonClassList(CollationResult result, Path outDir) throws IOException {
     Path commonClassListPath = outDir.resolve(SHARED_CLASS_LIST_PATH);
     Files.createDirectories(commonClassListPath.getParent());
-    Set<String> intersection = result.getIntersection();
-    Files.write(commonClassListPath, intersection);
+    int intersectionSize;
+    if (customLoaders) {
+      // custom loaders' classes must refer to the common libs' copies as the apps' own libs may be deleted later  
+      Path sharedLibDir = outDir.resolve(SHARED_ROOT).resolve(LIB_DIR_NAME).toAbsolutePath();
+      intersectionSize = new ClassRecordWriter(sharedLibDir).write(result.getIntersectionEntries(), commonClassListPath);
+    } else if (result.hasDirectives()) {
+      // directives (e.g. '@lambda-proxy') must follow the classes and refer to the listed classes only
+      intersectionSize = new ClassRecordWriter(null).write(result.getIntersectionEntries(), commonClassListPath);
+    } else {
+      intersectionSize = result.writeIntersection(commonClassListPath);
+    }
     
-    log.log(INFO, "{0} class names saved into ''{1}''", intersection.size(), commonClassListPath);
+    log.log(INFO, "{0} class names saved into ''{1}''", intersectionSize, commonClassListPath);
+  }
+
+  /**
+   * A.3 - remember the classes loaded by the applications (in loading order) to arrange the classpaths later
+   */
+  private ClasspathOptimizer createClasspathOptimizer(CollationResult result) {
+    var classLists = result.getListNames()
+            .stream()
+            .map(result::getEntries)
+            .collect(toList());
+    return new ClasspathOptimizer(classLists);
   }
   //</editor-fold>
 
@@ -176,20 +236,32 @@ public class JCudos implements Runnable {
   /**
    * Stage C - common archive (JSA) creation
    * @param libDirs list of paths to extracted libs
+   * @param commonLibNames file names of the libs common for all the applications (see C.1)
    * @param outDirPath path to common AppCDS out directory
+   * @param classListsResult the result of Stage A
+   * @param classpathOptimizer the arranger of common libs on the classpath
    * @throws IOException in case of any IO error
-   * @return paths to common libraries (in AppCDS common directory)
+   * @return paths to common libraries (in AppCDS common directory) forming the shared classpath
    */
-  private List<Path> createCommonArchive(List<String> libDirs, Path outDirPath) throws IOException, InterruptedException {
-    // C.1 - find common libs among all extracted libs
-    Set<String> intersection = findCommonLibs(libDirs);
-    
+  private List<Path> createCommonArchive(List<String> libDirs, Set<String> commonLibNames, Path outDirPath, 
+                                         CollationResult classListsResult, ClasspathOptimizer classpathOptimizer)
+          throws IOException, InterruptedException {
     // C.2 - copy all common libs from apps' local dirs to common AppCDS directory
-    // C.4 - remember the list of common libs with their absolute paths
-    List<Path> commonLibPaths = copySharedLibs(libDirs, outDirPath, intersection);
+    // C.4 - remember the list of common libs with their absolute paths (the most used first)
+    List<Path> commonLibPaths = classpathOptimizer.order(copySharedLibs(libDirs, outDirPath, commonLibNames), 
+            readCommonClasspathIndex(libDirs));
+    // C.2a - replace the common libs with the single shared JAR if requested
+    if (mergeSharedLibs) {
+      commonLibPaths = mergeSharedLibs(outDirPath, commonLibPaths);
+    }
 
     // C.3 - compose arg-file from paths of copied common libraries
     createCommonArgFile(outDirPath, commonLibPaths);
+
+    // A.2 (deferred) - now the records of custom loaders' classes can be pointed to the copied common libs 
+    if (customLoaders) {
+      saveCommonClassList(classListsResult, outDirPath);
+    }
     
     // C.5 - execute java -Xshare:dump with all the accumulated data
     executeJavaXShareDump(outDirPath);
@@ -204,7 +276,7 @@ public class JCudos implements Runnable {
     Collate collateCommand = new Collate();
     collateCommand.setArgs(libDirs);
     var collationResult = collateCommand.call();
-    Set<String> intersection = collationResult.getIntersection();
+    List<String> intersection = collationResult.getIntersection();
     log.log(INFO, "There are {0} common libs among all found applications.", intersection.size());
     // leave file names only as all the rest is the same and is not interesting for further processing
     return intersection.stream()
@@ -236,6 +308,42 @@ public class JCudos implements Runnable {
     return commonLibPaths;
   }
 
+  /**
+   * C.2a - merge the common libs into a single shared JAR
+   * @param commonLibPaths the copied common libs in the order of the classpath
+   * @return the new shared classpath, i.e. the shared JAR followed by the libs from the first signed one on (if any)
+   */
+  private List<Path> mergeSharedLibs(Path outDirPath, List<Path> commonLibPaths) throws IOException {
+    if (customLoaders) {
+      log.log(WARNING, "Common libs are not merged as custom loaders'' class records refer to them separately.");
+      return commonLibPaths;
+    }
+    Path sharedJarPath = outDirPath.resolve(SHARED_JAR_PATH).toAbsolutePath();
+    var merger = new JarMerger(false);
+    List<Path> mergedPaths;
+    try {
+      mergedPaths = merger.merge(commonLibPaths, sharedJarPath);
+    } catch (IOException e) {
+      log.log(WARNING, "Failed to merge common libs ({0}). They are left as is.", e);
+      return commonLibPaths;
+    }
+    if (mergedPaths.isEmpty()) {
+      return commonLibPaths;
+    }
+    for (Path mergedPath : mergedPaths) {
+      Files.delete(mergedPath);     // not to be mistaken for the archive's classpath entries
+    }
+    List<Path> sharedClasspath = new ArrayList<>();
+    sharedClasspath.add(sharedJarPath);
+    commonLibPaths.stream()
+            .filter(path -> !mergedPaths.contains(path))
+            .forEach(sharedClasspath::add);
+    log.log(INFO, "Merged {0} common libs into ''{1}''; resolved {2} duplicate entries in favor of preceding libs " +
+            "and merged {3} service files.", mergedPaths.size(), sharedJarPath, merger.getDuplicatesCount(),
+            merger.getMergedFilesCount());
+    return sharedClasspath;
+  }
+
   /**
    * C.3 - compose arg-file from paths of copied common libraries
    */
@@ -293,17 +401,31 @@ public class JCudos implements Runnable {
   /**
    * Stage D - Preparation of applications' local arg-files
    * @param libDirs list of paths to extracted libs
-   * @param commonLibPaths list of paths to common libs
+   * @param commonLibNames file names of common libs
+   * @param commonLibPaths list of paths to common libs (or the shared JAR they've been merged into)
+   * @param classpathOptimizer the arranger of private libs on the classpath
    */
-  private void preparePrivateArgFiles(List<String> libDirs, List<Path> commonLibPaths) throws IOException {
+  private void preparePrivateArgFiles(List<String> libDirs, Set<String> commonLibNames, List<Path> commonLibPaths, 
+                                      ClasspathOptimizer classpathOptimizer) throws IOException {
     // D.1 - remove all common libs from applications' local directories
-    deleteCommonLibs(libDirs, commonLibPaths);
+    deleteCommonLibs(libDirs, commonLibNames);
+
+    // D.1a - make the remaining (private) libs uncompressed if requested
+    if (store) {
+      storePrivateLibs(libDirs);
+    }
     
     // D.2 - compose app's own argfile
     Path jsaPath = outDir.resolve(SHARED_ARCHIVE_PATH);
     for (String libDir : libDirs) {
       Path libDirPath = Paths.get(libDir);
-      List<Path> privateLibPaths = PathUtils.getDirListing(libDirPath);
+      // the libs serving the most of loaded classes go first while the never used ones go last
+      List<Path> privateLibPaths = classpathOptimizer.order(PathUtils.getDirListing(libDirPath), 
+              readClasspathIndex(libDirPath));
+      // D.1b - replace the private libs with the single JAR if requested
+      if (mergePrivateLibs) {
+        privateLibPaths = mergePrivateLibs(libDirPath, privateLibPaths);
+      }
       int commonLibsCount = commonLibPaths.size();
       int privateLibsCount = privateLibPaths.size();
       String classpath = Stream.concat(commonLibPaths.stream(), privateLibPaths.stream())
@@ -324,19 +446,90 @@ public class JCudos implements Runnable {
   /**
    * D.1 - remove all common libs from applications' local directories
    */
-  private void deleteCommonLibs(List<String> libDirs, List<Path> commonLibPaths) {
-    Set<Path> commonLibNames = commonLibPaths.stream()
-            .map(Path::getFileName)
-            .collect(toSet());
-    DirectoryStream.Filter<Path> libFilter = lib -> commonLibNames.contains(lib.getFileName());
+  private void deleteCommonLibs(List<String> libDirs, Set<String> commonLibNames) {
+    DirectoryStream.Filter<Path> libFilter = lib -> commonLibNames.contains(lib.getFileName().toString());
     libDirs.stream()
            .map(Paths::get)
            .forEach(libDir -> PathUtils.deleteFilesByFilter(libDir, libFilter));
     log.log(INFO, "Removed {0} jars from each of {1} directories.", commonLibNames.size(), libDirs.size());
   }
+
+  /**
+   * D.1a - repack applications' private libs so that their entries become uncompressed
+   */
+  private void storePrivateLibs(List<String> libDirs) throws IOException {
+    int repackedCount = 0;
+    for (String libDir : libDirs) {
+      for (Path libPath : PathUtils.getDirListing(Paths.get(libDir))) {
+        if (RawZipWriter.repackStored(libPath)) {
+          log.log(DEBUG, "Private lib ''{0}'' has been repacked uncompressed.", libPath);
+          repackedCount++;
+        }
+      }
+    }
+    log.log(INFO, "Repacked {0} private libs of {1} applications uncompressed.", repackedCount, libDirs.size());
+  }
+
+  /**
+   * D.1b - merge application's private libs (including the slim JAR) into a single JAR
+   * @param privateLibPaths the libs in the order of the classpath
+   * @return the new private classpath, i.e. the merged JAR followed by the libs from the first signed one on (if any)
+   */
+  private List<Path> mergePrivateLibs(Path libDirPath, List<Path> privateLibPaths) throws IOException {
+    String appName = libDirPath.getParent().getFileName().toString();
+    Path mergedJarPath = libDirPath.resolve(appName + MERGED_JAR_SUFFIX);
+    var merger = new JarMerger(store);
+    List<Path> mergedPaths;
+    try {
+      mergedPaths = merger.merge(privateLibPaths, mergedJarPath);
+    } catch (IOException e) {
+      log.log(WARNING, "Failed to merge private libs of ''{0}'' ({1}). They are left as is.", appName, e);
+      return privateLibPaths;
+    }
+    if (mergedPaths.isEmpty()) {
+      return privateLibPaths;
+    }
+    for (Path mergedPath : mergedPaths) {
+      Files.delete(mergedPath);
+    }
+    List<Path> newPrivateLibPaths = new ArrayList<>();
+    newPrivateLibPaths.add(mergedJarPath);
+    privateLibPaths.stream()
+            .filter(path -> !mergedPaths.contains(path))
+            .forEach(newPrivateLibPaths::add);
+    log.log(INFO, "Merged {0} private libs of ''{1}'' into ''{2}''; resolved {3} duplicate entries in favor of " +
+            "preceding libs and merged {4} service files.", mergedPaths.size(), appName, mergedJarPath,
+            merger.getDuplicatesCount(), merger.getMergedFilesCount());
+    return newPrivateLibPaths;
+  }
   //</editor-fold>
 
   //<editor-fold desc="Auxiliary private methods">
+
+  /**
+   * Merges the classpath indexes of all the applications into one to order the common libs by. The libs go in the
+   * order of the first application's index; those absent in it follow in the order of the next indexes. Thus, if the
+   * applications disagree on the relative order of some libs, the first application's order prevails (the common libs
+   * are put on the single shared classpath anyway, so at most one of the orders can be kept).
+   */
+  private List<String> readCommonClasspathIndex(List<String> libDirs) throws IOException {
+    Set<String> commonIndex = new LinkedHashSet<>();
+    for (String libDir : libDirs) {
+      commonIndex.addAll(readClasspathIndex(Paths.get(libDir)));
+    }
+    return new ArrayList<>(commonIndex);
+  }
+
+  /**
+   * @return file names of application's libs in the order of its Spring Boot classpath index (stored at Stage B) or
+   * an empty list if the application has no index
+   */
+  private List<String> readClasspathIndex(Path libDir) throws IOException {
+    Path indexPath = libDir.resolveSibling(CLASSPATH_INDEX_FILE_NAME);
+    return Files.isRegularFile(indexPath)
+            ? ClasspathOptimizer.parseClasspathIndex(Files.readAllLines(indexPath))
+            : List.of();
+  }
   
   private void validateRootPath(Path root) {
     // check root dir path
@@ -0,0 +1,210 @@
+package tech.toparvion.util.jcudos.model.collate;
+
+import tech.toparvion.util.jcudos.model.collate.entry.ClassListDirective;
+import tech.toparvion.util.jcudos.model.collate.entry.ClassRecordEntry;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.lang.System.Logger.Level.INFO;
+import static java.lang.System.Logger.Level.WARNING;
+
+/**
+ * Writes collated {@link ClassRecordEntry class records} into a class list that CDS can consume. As the entries come
+ * from different lists (and have been sorted by collation), the writer:
+ * <ul>
+ *   <li>assigns new klass IDs, unique within the written list;</li>
+ *   <li>puts every record after the records of its super class and interfaces;</li>
+ *   <li>optionally rewrites the sources of custom loaders' classes to {@code <sourcesDir>/<jar-file-name>};</li>
+ *   <li>drops the records whose super class, interfaces or source JAR are not available (along with all the records
+ *   depending on them) because CDS would fail to dump such a list;</li>
+ *   <li>puts {@linkplain ClassListDirective directives} after all the classes (as the JDK does) and drops those
+ *   referring to classes absent in the written list; as the JDK supports the directives for built-in class loaders
+ *   only, the classes of custom loaders are not taken into account.</li>
+ * </ul>
+ *
+ * @author Toparvion
+ */
+public class ClassRecordWriter {
+  private static final System.Logger log = System.getLogger(ClassRecordWriter.class.getSimpleName());
+
+  private final Path sourcesDir;
+
+  /**
+   * @param sourcesDir directory to rewrite the sources into; {@code null} to keep original sources
+   */
+  public ClassRecordWriter(Path sourcesDir) {
+    this.sourcesDir = sourcesDir;
+  }
+
+  /**
+   * @param entries the entries to write; those of other types are written as plain class names (or directives if
+   *                their string values look like ones)
+   * @param outPath path of class list file to write
+   * @return the number of written records
+   */
+  public int write(Collection<?> entries, Path outPath) throws IOException {
+    Map<String, ClassRecordEntry> entriesByKey = new HashMap<>();
+    for (Object entry : entries) {
+      if (entry instanceof ClassRecordEntry) {
+        entriesByKey.put(entry.toString(), (ClassRecordEntry) entry);
+      }
+    }
+    try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+      var session = new Session(entriesByKey, writer);
+      List<ClassListDirective> directives = new ArrayList<>();
+      for (Object entry : entries) {
+        if (entry instanceof ClassRecordEntry) {
+          session.emit((ClassRecordEntry) entry);
+        } else if (entry instanceof ClassListDirective) {
+          directives.add((ClassListDirective) entry);
+        } else if (ClassListDirective.isDirective(entry.toString())) {
+          directives.add(ClassListDirective.parse(entry.toString()));     // e.g. from binary lists
+        } else {
+          String line = entry.toString();
+          writer.write(line);
+          writer.newLine();
+          session.writtenCount++;
+          if (!line.startsWith("#")) {
+            int nameEnd = line.indexOf(' ');
+            session.builtInNames.add((nameEnd < 0) ? line : line.substring(0, nameEnd));
+          }
+        }
+      }
+      if (!session.dropped.isEmpty()) {
+        log.log(WARNING, "{0} record(s) have been dropped from ''{1}'' because of unavailable dependencies or " +
+                "sources, e.g. ''{2}''", session.dropped.size(), outPath, session.dropped.iterator().next());
+      }
+      session.emitDirectives(directives, outPath);
+      log.log(INFO, "{0} class record(s) have been written to ''{1}''", session.writtenCount, outPath);
+      return session.writtenCount;
+    }
+  }
+
+  /**
+   * The state of a single writing.
+   */
+  private class Session {
+    private final Map<String, ClassRecordEntry> entriesByKey;
+    private final BufferedWriter writer;
+    private final Map<String, Integer> assignedIds = new HashMap<>();
+    private final Set<String> dropped = new LinkedHashSet<>();
+    private final Set<String> visiting = new HashSet<>();
+    private final Set<String> written = new HashSet<>();
+    /** names of written classes of built-in class loaders, i.e. those that the directives may refer to */
+    private final Set<String> builtInNames = new HashSet<>();
+    private int writtenCount = 0;
+
+    Session(Map<String, ClassRecordEntry> entriesByKey, BufferedWriter writer) {
+      this.entriesByKey = entriesByKey;
+      this.writer = writer;
+    }
+
+    /**
+     * Writes given entry after all its dependencies (depth first).
+     * @return assigned klass ID or {@code null} if the entry has been dropped
+     */
+    Integer emit(ClassRecordEntry entry) throws IOException {
+      String key = entry.toString();
+      if (written.contains(key) || dropped.contains(key)) {
+        return assignedIds.get(key);      // entries without IDs can't be referred, so they're treated as dropped
+      }
+      if (!visiting.add(key)) {     // a cycle can only come from malformed lists
+        dropped.add(key);
+        return null;
+      }
+      // the dependencies go first as they must get their IDs before this entry refers to them
+      Integer superId = null;
+      if (entry.getSuperKey() != null) {
+        superId = emitDependency(entry.getSuperKey());
+        if (superId == null) {
+          return drop(key);
+        }
+      }
+      List<Integer> interfaceIds = new ArrayList<>();
+      for (String interfaceKey : entry.getInterfaceKeys()) {
+        Integer interfaceId = emitDependency(interfaceKey);
+        if (interfaceId == null) {
+          return drop(key);
+        }
+        interfaceIds.add(interfaceId);
+      }
+      String source = entry.getSource();
+      if (source != null && sourcesDir != null) {
+        Path sourcePath = sourcesDir.resolve(entry.getSourceJar());
+        if (!Files.isRegularFile(sourcePath)) {
+          return drop(key);
+        }
+        source = sourcePath.toString();
+      }
+      visiting.remove(key);
+
+      Integer id = null;
+      StringBuilder record = new StringBuilder(entry.getName());
+      if (entry.hasId()) {
+        id = assignedIds.size() + 1;      // zero is reserved by CDS for 'no class'
+        assignedIds.put(key, id);
+        record.append(" id: ").append(id);
+      }
+      if (superId != null) {
+        record.append(" super: ").append(superId);
+      }
+      if (!interfaceIds.isEmpty()) {
+        record.append(" interfaces:");
+        interfaceIds.forEach(interfaceId -> record.append(' ').append(interfaceId));
+      }
+      if (source != null) {
+        record.append(" source: ").append(source);
+      }
+      writer.write(record.toString());
+      writer.newLine();
+      written.add(key);
+      writtenCount++;
+      if (source == null) {
+        builtInNames.add(entry.getName());
+      }
+      return id;
+    }
+
+    /**
+     * Writes given directives (in their order) skipping duplicates and those referring to unwritten classes.
+     */
+    void emitDirectives(List<ClassListDirective> directives, Path outPath) throws IOException {
+      Set<ClassListDirective> emitted = new HashSet<>();
+      List<ClassListDirective> droppedDirectives = new ArrayList<>();
+      for (ClassListDirective directive : directives) {
+        String referencedClass = directive.getReferencedClass();
+        if (referencedClass != null && !builtInNames.contains(referencedClass)) {
+          droppedDirectives.add(directive);
+          continue;
+        }
+        if (emitted.add(directive)) {
+          writer.write(directive.toString());
+          writer.newLine();
+          writtenCount++;
+        }
+      }
+      if (!droppedDirectives.isEmpty()) {
+        log.log(WARNING, "{0} directive(s) have been dropped from ''{1}'' because of referring to unlisted classes, " +
+                "e.g. ''{2}''", droppedDirectives.size(), outPath, droppedDirectives.get(0));
+      }
+      if (!emitted.isEmpty()) {
+        log.log(INFO, "{0} directive(s) have been written to ''{1}''", emitted.size(), outPath);
+      }
+    }
+
+    private Integer emitDependency(String dependencyKey) throws IOException {
+      ClassRecordEntry dependency = entriesByKey.get(dependencyKey);
+      return (dependency == null) ? null : emit(dependency);
+    }
+
+    private Integer drop(String key) {
+      visiting.remove(key);
+      dropped.add(key);
+      return null;
+    }
+  }
+}
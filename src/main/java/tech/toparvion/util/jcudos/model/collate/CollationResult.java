@@ -1,47 +1,205 @@
 package tech.toparvion.util.jcudos.model.collate;
 
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
+import tech.toparvion.util.jcudos.model.collate.entry.ClassListDirective;
 
-import static java.util.stream.Collectors.toSet;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
 
 /**
+ * The outcome of collation. Keeps all the entries in their original types (strings, path entries, nested JAR entries)
+ * and turns them into strings only on demand, i.e. when being read through the views or written into files.
+ * The merging and intersection are stored as lists sorted by entries' string representation (either arrays of
+ * in-memory entries or file-backed lists); the owns are not stored at all but computed lazily from the source lists
+ * and the intersection.
+ *
  * @author Toparvion
  */
 public class CollationResult {
-  private final Set<String> merging;
-  private final Set<String> intersection;
-  private final Map<String, List<?>> owns;      // convert to Map<String, List<String>> if necessary
+  private static final Comparator<Object> BY_STRING_VALUE = Comparator.comparing(Object::toString);
 
-  public CollationResult(Set<?> merging, Set<?> intersection, Map<String, List<?>> owns) {
-    this.merging = merging.stream()
-        .map(Object::toString)
-        .collect(toSet());
-    this.intersection = intersection.stream()
-        .map(Object::toString)
-        .collect(toSet());
-    this.owns = owns;
+  private final List<?> merging;
+  private final List<?> intersection;
+  /** The same intersection but kept for fast (and {@code equals}-based) membership checks */
+  private final Collection<?> intersectionLookup;
+  /** The source lists; shared (not copied) with the caller */
+  private final Map<String, List<?>> allEntries;
+
+  public CollationResult(Set<?> merging, Set<?> intersection, Map<String, List<?>> allEntries) {
+    Object[] mergingArray = merging.toArray();
+    Arrays.sort(mergingArray, BY_STRING_VALUE);
+    this.merging = Arrays.asList(mergingArray);
+    Object[] intersectionArray = intersection.toArray();
+    Arrays.sort(intersectionArray, BY_STRING_VALUE);
+    this.intersection = Arrays.asList(intersectionArray);
+    this.intersectionLookup = intersection;
+    this.allEntries = allEntries;
+  }
+
+  /**
+   * Creates the result from already sorted lists, e.g. those produced by external collation. The intersection list
+   * is expected to provide fast {@link List#contains(Object) contains} method.
+   */
+  public CollationResult(List<?> merging, List<?> intersection, Map<String, List<?>> allEntries) {
+    this.merging = merging;
+    this.intersection = intersection;
+    this.intersectionLookup = intersection;
+    this.allEntries = allEntries;
+  }
+
+  /**
+   * @return a read-only view of merged entries' string representations (in ascending order)
+   */
+  public List<String> getMerging() {
+    return new StringView(merging);
+  }
+
+  /**
+   * @return a read-only view of intersected entries' string representations (in ascending order)
+   */
+  public List<String> getIntersection() {
+    return new StringView(intersection);
+  }
+
+  /**
+   * @return a read-only view of merged entries in their original types (in ascending order of their string values)
+   */
+  public List<?> getMergingEntries() {
+    return Collections.unmodifiableList(merging);
+  }
+
+  /**
+   * @return a read-only view of intersected entries in their original types (in ascending order of their string values)
+   */
+  public List<?> getIntersectionEntries() {
+    return Collections.unmodifiableList(intersection);
+  }
+
+  /**
+   * @return {@code true} if the merging contains any {@linkplain ClassListDirective class list directives}, i.e. the
+   * result should be written by {@link ClassRecordWriter} to get the directives validated and put after the classes
+   */
+  public boolean hasDirectives() {
+    // as the merging is sorted by string values, the directives (if any) are among the leading entries
+    for (Object entry : merging) {
+      String value = entry.toString();
+      if (ClassListDirective.isDirective(value)) {
+        return true;
+      }
+      if (!value.isEmpty() && value.charAt(0) > '@') {
+        break;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return names of all the collated lists
+   */
+  public Set<String> getListNames() {
+    return Collections.unmodifiableSet(allEntries.keySet());
+  }
+
+  /**
+   * @param listName one of {@linkplain #getListNames() list names}
+   * @return a read-only view of the list's entries in their original order (unless the list has been collated in
+   * streaming mode, i.e. sorted)
+   */
+  public List<?> getEntries(String listName) {
+    return Collections.unmodifiableList(allEntries.getOrDefault(listName, List.of()));
+  }
+
+  /**
+   * @param listName one of {@linkplain #getListNames() list names}
+   * @return a lazy stream of the entries that belong to the specified list but not to the intersection
+   */
+  public Stream<?> getOwns(String listName) {
+    List<?> entries = allEntries.getOrDefault(listName, List.of());
+    return entries.stream()
+            .filter(entry -> !intersectionLookup.contains(entry));
+  }
+
+  /**
+   * Writes the merging straight into specified file, one entry per line.
+   * @return the number of written entries
+   */
+  public int writeMerging(Path outPath) throws IOException {
+    return write(merging.stream(), outPath);
   }
 
-  public Set<String> getMerging() {
-    return merging;
+  /**
+   * Writes the intersection straight into specified file, one entry per line.
+   * @return the number of written entries
+   */
+  public int writeIntersection(Path outPath) throws IOException {
+    return write(intersection.stream(), outPath);
   }
 
-  public Set<String> getIntersection() {
-    return intersection;
+  /**
+   * Writes the own entries of specified list straight into specified file, one entry per line.
+   * @return the number of written entries
+   */
+  public int writeOwns(String listName, Path outPath) throws IOException {
+    return write(getOwns(listName), outPath);
   }
 
-  public Map<String, List<?>> getOwns() {
-    return owns;
+  private static int write(Stream<?> entries, Path outPath) throws IOException {
+    int count = 0;
+    try (BufferedWriter writer = Files.newBufferedWriter(outPath)) {
+      for (Iterator<?> iterator = entries.iterator(); iterator.hasNext(); count++) {
+        writer.write(iterator.next().toString());
+        writer.newLine();
+      }
+    }
+    return count;
   }
 
   @Override
   public String toString() {
     return "CollationResult{" +
-            "merging=" + merging +
-            ", intersection=" + intersection +
-            ", owns=" + owns +
+            "merging=" + merging.size() +
+            ", intersection=" + intersection.size() +
+            ", lists=" + allEntries.keySet() +
             '}';
   }
+
+  /**
+   * A list that renders the entries of underlying list into strings upon every access.
+   */
+  private static class StringView extends AbstractList<String> implements RandomAccess {
+    private final List<?> entries;
+
+    StringView(List<?> entries) {
+      this.entries = entries;
+    }
+
+    @Override
+    public String get(int index) {
+      return entries.get(index).toString();
+    }
+
+    @Override
+    public int size() {
+      return entries.size();
+    }
+
+    @Override
+    public Iterator<String> iterator() {
+      Iterator<?> iterator = entries.iterator();     // may be much cheaper than get(index) for file-backed lists
+      return new Iterator<>() {
+        @Override
+        public boolean hasNext() {
+          return iterator.hasNext();
+        }
+
+        @Override
+        public String next() {
+          return iterator.next().toString();
+        }
+      };
+    }
+  }
 }
@@ -0,0 +1,75 @@
+package tech.toparvion.util.jcudos.model.collate;
+
+import java.util.Arrays;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A MinHash signature of a set of strings. Keeps the minimum of each of {@value #HASHES_COUNT} independent hash
+ * functions over all the added elements. The share of equal minimums in two signatures estimates the Jaccard
+ * similarity of the underlying sets with ~{@code 1/sqrt(HASHES_COUNT)} error, no matter how big the sets are.
+ *
+ * @author Toparvion
+ */
+public class MinHashSignature {
+  public static final int HASHES_COUNT = 128;
+
+  private final long[] minimums = new long[HASHES_COUNT];
+  private int elementsCount = 0;
+
+  public MinHashSignature() {
+    Arrays.fill(minimums, Long.MAX_VALUE);
+  }
+
+  public void add(String element) {
+    long base = mix(hash64(element));
+    for (int i = 0; i < HASHES_COUNT; i++) {
+      long hash = mix(base + i * 0xBF58476D1CE4E5B9L);
+      if (hash < minimums[i]) {
+        minimums[i] = hash;
+      }
+    }
+    elementsCount++;
+  }
+
+  /**
+   * @return estimated Jaccard similarity of this and other sets, from 0.0 to 1.0
+   */
+  public double similarity(MinHashSignature other) {
+    if (this.elementsCount == 0 || other.elementsCount == 0) {
+      return 0.0;
+    }
+    int matches = 0;
+    for (int i = 0; i < HASHES_COUNT; i++) {
+      if (this.minimums[i] == other.minimums[i]) {
+        matches++;
+      }
+    }
+    return (double) matches / HASHES_COUNT;
+  }
+
+  long minimum(int hashIndex) {
+    return minimums[hashIndex];
+  }
+
+  /**
+   * 64-bit FNV-1a hash of the element's UTF-8 bytes. Unlike {@link String#hashCode()}, it doesn't confine all the
+   * derived hashes to 2<sup>32</sup> distinct values and thus doesn't let colliding elements be counted as equal ones.
+   */
+  private static long hash64(String element) {
+    long hash = 0xCBF29CE484222325L;
+    for (byte b : element.getBytes(UTF_8)) {
+      hash = (hash ^ (b & 0xFF)) * 0x100000001B3L;
+    }
+    return hash;
+  }
+
+  /**
+   * A finalizer taken from SplitMix64 generator; turns sequential inputs into well distributed hashes.
+   */
+  private static long mix(long z) {
+    z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+    z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+    return z ^ (z >>> 31);
+  }
+}
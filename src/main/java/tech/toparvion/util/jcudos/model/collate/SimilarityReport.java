@@ -0,0 +1,137 @@
+package tech.toparvion.util.jcudos.model.collate;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.IntStream;
+
+import static tech.toparvion.util.jcudos.model.collate.MinHashSignature.HASHES_COUNT;
+
+/**
+ * Pairwise similarity of collated lists estimated by means of their {@linkplain MinHashSignature MinHash signatures}.
+ * Consists of three sections:
+ * <ol>
+ *   <li>the matrix of estimated Jaccard similarities;</li>
+ *   <li>the nearest neighbours of every list;</li>
+ *   <li>the lists that hurt the global intersection most, i.e. those whose exclusion would increase the
+ *   intersection of all the rest lists the most.</li>
+ * </ol>
+ * The latter is estimated per hash function: if all the signatures but one agree on the minimum, the minimal element
+ * of the rest lists' union belongs to all of them and only the odd list prevents it from getting into the intersection.
+ * As there is no majority to single out the odd list of two, this section is written for 3 lists or more only.
+ *
+ * @author Toparvion
+ */
+public class SimilarityReport {
+  private static final int NEIGHBOURS_COUNT = 3;
+
+  private final List<String> names;
+  private final List<MinHashSignature> signatures;
+  private final int mergingSize;
+
+  /**
+   * @param signatures signatures of the lists by their (short) names
+   * @param mergingSize the size of all lists' merging; used to turn similarities into absolute numbers
+   */
+  public SimilarityReport(Map<String, MinHashSignature> signatures, int mergingSize) {
+    this.names = new ArrayList<>(signatures.keySet());
+    this.signatures = new ArrayList<>(signatures.values());
+    this.mergingSize = mergingSize;
+  }
+
+  public void write(Path outPath) throws IOException {
+    int count = names.size();
+    double[][] matrix = new double[count][count];
+    for (int i = 0; i < count; i++) {
+      matrix[i][i] = 1.0;
+      for (int j = i + 1; j < count; j++) {
+        matrix[i][j] = matrix[j][i] = signatures.get(i).similarity(signatures.get(j));
+      }
+    }
+    try (var out = new PrintWriter(Files.newBufferedWriter(outPath))) {
+      // 1. the matrix
+      out.printf("# Estimated Jaccard similarity of %d lists (MinHash with %d hashes)%n", count, HASHES_COUNT);
+      out.print("list");
+      names.forEach(name -> out.print('\t' + name));
+      out.println();
+      for (int i = 0; i < count; i++) {
+        out.print(names.get(i));
+        for (int j = 0; j < count; j++) {
+          out.printf(Locale.ROOT, "\t%.2f", matrix[i][j]);
+        }
+        out.println();
+      }
+      // 2. nearest neighbours
+      out.println();
+      out.printf("# Nearest %d neighbours of every list%n", NEIGHBOURS_COUNT);
+      for (int i = 0; i < count; i++) {
+        final int self = i;
+        StringJoiner neighbours = new StringJoiner(", ", names.get(i) + ": ", "");
+        Comparator<Integer> bySimilarity = Comparator.comparingDouble(j -> matrix[self][j]);
+        IntStream.range(0, count)
+                .filter(j -> j != self)
+                .boxed()
+                .sorted(bySimilarity.reversed())
+                .limit(NEIGHBOURS_COUNT)
+                .map(j -> String.format(Locale.ROOT, "%s (%.2f)", names.get(j), matrix[self][j]))
+                .forEach(neighbours::add);
+        out.println(neighbours);
+      }
+      // 3. intersection hurters
+      if (count >= 3) {
+        writeIntersectionHurters(out);
+      }
+    }
+  }
+
+  private void writeIntersectionHurters(PrintWriter out) {
+    int count = names.size();
+    int agreedByAll = 0;
+    int[] soleDissents = new int[count];
+    for (int h = 0; h < HASHES_COUNT; h++) {
+      // find the majority minimum with Boyer-Moore vote and then check how many signatures share it
+      long candidate = 0;
+      int votes = 0;
+      for (MinHashSignature signature : signatures) {
+        long minimum = signature.minimum(h);
+        if (votes == 0) {
+          candidate = minimum;
+          votes = 1;
+        } else {
+          votes += (minimum == candidate) ? 1 : -1;
+        }
+      }
+      int dissenter = -1, dissentsCount = 0;
+      for (int i = 0; i < count && dissentsCount < 2; i++) {
+        if (signatures.get(i).minimum(h) != candidate) {
+          dissenter = i;
+          dissentsCount++;
+        }
+      }
+      // a single dissent among 3 or more signatures means the candidate has strict majority, i.e. the vote is valid
+      if (dissentsCount == 0) {
+        agreedByAll++;
+      } else if (dissentsCount == 1) {
+        soleDissents[dissenter]++;
+      }
+    }
+    final int agreedByAllCount = agreedByAll;
+    double globalSimilarity = (double) agreedByAllCount / HASHES_COUNT;
+    out.println();
+    out.printf(Locale.ROOT, "# Lists hurting the global intersection most (global similarity: %.2f, " +
+            "estimated intersection: %d of %d)%n", globalSimilarity, Math.round(globalSimilarity * mergingSize),
+            mergingSize);
+    out.println("list\tsimilarity-without\testimated-intersection-gain");
+    IntStream.range(0, count)
+            .filter(i -> soleDissents[i] > 0)
+            .boxed()
+            .sorted(Comparator.comparingInt((Integer i) -> soleDissents[i]).reversed())
+            .forEach(i -> {
+              double similarityWithout = (double) (agreedByAllCount + soleDissents[i]) / HASHES_COUNT;
+              long gain = Math.round((similarityWithout - globalSimilarity) * mergingSize);
+              out.printf(Locale.ROOT, "%s\t%.2f\t+%d%n", names.get(i), similarityWithout, gain);
+            });
+  }
+}
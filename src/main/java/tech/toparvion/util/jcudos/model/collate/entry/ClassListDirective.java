@@ -0,0 +1,95 @@
+package tech.toparvion.util.jcudos.model.collate.entry;
+
+import java.util.List;
+
+/**
+ * A directive line of class lists produced by {@code -XX:DumpLoadedClassList} on JDK 16+ to represent a thing other
+ * than a class in Collate's entries map, e.g.:
+ * <pre>
+ *   &#64;lambda-proxy org/example/Foo run ()Ljava/lang/Runnable; ()V REF_invokeStatic org/example/Foo lambda$main$0 ()V ()V
+ *   &#64;lambda-form-invoker [LF_RESOLVE] java.lang.invoke.DirectMethodHandle$Holder invokeStatic L_L
+ * </pre>
+ * The identity of a directive is its name along with its arguments separated by single spaces, i.e. the same lambda
+ * proxy (or LambdaForm invoker) is the same entry in all the lists regardless of the original spacing. Most of the
+ * directives refer to a class (the lambda proxy's caller class, for instance) which must be present in the same class
+ * list for the directive to take effect; the exceptions are LambdaForm invokers as they refer to JDK's own holder
+ * classes only.
+ *
+ * @author Toparvion
+ */
+public class ClassListDirective {
+  private static final char DIRECTIVE_MARK = '@';
+  private static final String LAMBDA_FORM_INVOKER = "@lambda-form-invoker";
+
+  private final String name;
+  private final List<String> arguments;
+  private final String key;
+
+  private ClassListDirective(String name, List<String> arguments) {
+    this.name = name;
+    this.arguments = arguments;
+    this.key = arguments.isEmpty() ? name : (name + ' ' + String.join(" ", arguments));
+  }
+
+  /**
+   * @return a directive represented by given class list line or {@code null} if the line is not a directive
+   */
+  public static ClassListDirective parse(String line) {
+    String trimmed = line.trim();
+    if (!isDirective(trimmed)) {
+      return null;
+    }
+    String[] tokens = trimmed.split("\\s+");
+    return new ClassListDirective(tokens[0], List.of(tokens).subList(1, tokens.length));
+  }
+
+  /**
+   * @return {@code true} if given class list line is a directive (rather than a class record or a comment)
+   */
+  public static boolean isDirective(String line) {
+    return line.length() > 1 && line.charAt(0) == DIRECTIVE_MARK;
+  }
+
+  /**
+   * @return directive name including leading {@code @}, e.g. {@code @lambda-proxy}
+   */
+  public String getName() {
+    return name;
+  }
+
+  public List<String> getArguments() {
+    return arguments;
+  }
+
+  /**
+   * @return internal name of the class that must be listed along with this directive or {@code null} if the directive
+   * doesn't depend on any listed class
+   */
+  public String getReferencedClass() {
+    if (LAMBDA_FORM_INVOKER.equals(name) || arguments.isEmpty() || arguments.get(0).startsWith("[")) {
+      return null;
+    }
+    return arguments.get(0);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ClassListDirective that = (ClassListDirective) o;
+    return this.key.equals(that.key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  /**
+   * @return the identity of the directive which is also its normalized class list line
+   */
+  @Override
+  public String toString() {
+    return key;
+  }
+}
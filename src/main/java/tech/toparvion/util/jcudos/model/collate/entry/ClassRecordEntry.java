@@ -0,0 +1,197 @@
+package tech.toparvion.util.jcudos.model.collate.entry;
+
+import java.util.*;
+
+/**
+ * A full class list record (as produced by cl4cds) to represent a class in Collate's entries map:
+ * <pre>
+ *   java/lang/Object id: 0x0000000800000e00
+ *   org/example/Foo id: 0x0000000800123450 super: 0x0000000800000e00 interfaces: 0x0000000800001230 source: /path/x.jar
+ * </pre>
+ * The klass IDs are meaningful within their own list only, that's why the super class and interfaces are kept as
+ * references to other entries' identities rather than IDs. The identity of an entry is its class name plus the file
+ * name of its source JAR (if any), i.e. the same class loaded from the same library by different applications is the
+ * same entry no matter where the library resided.
+ *
+ * @author Toparvion
+ */
+public class ClassRecordEntry {
+  private static final String ID_MARK = " id: ";
+  private static final String SUPER_MARK = " super: ";
+  private static final String INTERFACES_MARK = " interfaces: ";
+  private static final String SOURCE_MARK = " source: ";
+
+  private final String name;
+  /** file name of the source JAR or {@code null} for classes loaded by built-in class loaders */
+  private final String sourceJar;
+  private final String source;
+  private final boolean hasId;
+  private final String superKey;
+  private final List<String> interfaceKeys;
+  private final String key;
+
+  private ClassRecordEntry(String name, String source, boolean hasId, String superKey, List<String> interfaceKeys) {
+    this.name = name;
+    this.source = source;
+    this.sourceJar = (source == null) ? null : jarFileName(source);
+    this.hasId = hasId;
+    this.superKey = superKey;
+    this.interfaceKeys = interfaceKeys;
+    this.key = (sourceJar == null) ? name : (name + SOURCE_MARK + sourceJar);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @return file name of the JAR the class was loaded from by a custom class loader or {@code null} if the class was
+   * loaded by one of built-in class loaders
+   */
+  public String getSourceJar() {
+    return sourceJar;
+  }
+
+  /**
+   * @return the source as it was in the original record
+   */
+  public String getSource() {
+    return source;
+  }
+
+  /**
+   * @return {@code true} if the record carried klass ID, i.e. the class can be referenced by other records
+   */
+  public boolean hasId() {
+    return hasId;
+  }
+
+  /**
+   * @return identity of the super class entry or {@code null} if there is no super class in the record
+   */
+  public String getSuperKey() {
+    return superKey;
+  }
+
+  /**
+   * @return identities of the interfaces' entries
+   */
+  public List<String> getInterfaceKeys() {
+    return interfaceKeys;
+  }
+
+  private static String jarFileName(String source) {
+    // works for both plain ('/some/lib/x.jar') and nested ('app.jar!/BOOT-INF/lib/x.jar') paths
+    int separatorIndex = Math.max(source.lastIndexOf('/'), Math.max(source.lastIndexOf('\\'), source.lastIndexOf('!')));
+    return source.substring(separatorIndex + 1);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) return true;
+    if (o == null || getClass() != o.getClass()) return false;
+    ClassRecordEntry that = (ClassRecordEntry) o;
+    return this.key.equals(that.key);
+  }
+
+  @Override
+  public int hashCode() {
+    return key.hashCode();
+  }
+
+  /**
+   * @return the identity of the entry, i.e. class name optionally followed by {@code source: <jar-file-name>}
+   */
+  @Override
+  public String toString() {
+    return key;
+  }
+
+  /**
+   * Turns the records of a single class list into entries. The records must come in their original order because
+   * every record may refer (by klass ID) to the preceding ones only. The {@linkplain ClassListDirective directives}
+   * are turned into their own entries.
+   */
+  public static class Parser {
+    private final Map<String, ClassRecordEntry> entriesById = new HashMap<>();
+    private final List<Object> entries = new ArrayList<>();
+    private int unresolvedCount = 0;
+
+    public void add(String record) {
+      record = record.trim();
+      if (record.isEmpty() || record.startsWith("#")) {
+        return;
+      }
+      if (ClassListDirective.isDirective(record)) {
+        entries.add(ClassListDirective.parse(record));
+        return;
+      }
+      int idIndex = record.indexOf(ID_MARK);
+      if (idIndex < 0) {
+        entries.add(new ClassRecordEntry(record, null, false, null, List.of()));    // plain class name
+        return;
+      }
+      String name = record.substring(0, idIndex);
+      int sourceIndex = record.indexOf(SOURCE_MARK, idIndex);
+      int superIndex = record.indexOf(SUPER_MARK, idIndex);
+      int interfacesIndex = record.indexOf(INTERFACES_MARK, idIndex);
+      int idEnd = firstNonNegative(superIndex, interfacesIndex, sourceIndex, record.length());
+      String id = record.substring(idIndex + ID_MARK.length(), idEnd);
+
+      String superKey = null;
+      if (superIndex >= 0) {
+        int superEnd = firstNonNegative(interfacesIndex, sourceIndex, record.length());
+        superKey = resolve(record.substring(superIndex + SUPER_MARK.length(), superEnd));
+        if (superKey == null) {
+          unresolvedCount++;
+          return;
+        }
+      }
+      List<String> interfaceKeys = new ArrayList<>();
+      if (interfacesIndex >= 0) {
+        int interfacesEnd = (sourceIndex >= 0) ? sourceIndex : record.length();
+        String interfaceIds = record.substring(interfacesIndex + INTERFACES_MARK.length(), interfacesEnd);
+        for (String interfaceId : interfaceIds.split(" ")) {
+          String interfaceKey = resolve(interfaceId);
+          if (interfaceKey == null) {
+            unresolvedCount++;
+            return;
+          }
+          interfaceKeys.add(interfaceKey);
+        }
+      }
+      String source = (sourceIndex >= 0) ? record.substring(sourceIndex + SOURCE_MARK.length()) : null;
+      var entry = new ClassRecordEntry(name, source, true, superKey, interfaceKeys);
+      entriesById.put(id, entry);
+      entries.add(entry);
+    }
+
+    /**
+     * @return the class records and directives in the original order
+     */
+    public List<Object> getEntries() {
+      return entries;
+    }
+
+    /**
+     * @return the number of records skipped because of referring to unknown klass IDs
+     */
+    public int getUnresolvedCount() {
+      return unresolvedCount;
+    }
+
+    private String resolve(String id) {
+      ClassRecordEntry entry = entriesById.get(id);
+      return (entry == null) ? null : entry.key;
+    }
+
+    private static int firstNonNegative(int... indices) {
+      for (int index : indices) {
+        if (index >= 0) {
+          return index;
+        }
+      }
+      return -1;
+    }
+  }
+}
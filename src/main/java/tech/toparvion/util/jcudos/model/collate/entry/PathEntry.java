@@ -22,6 +22,10 @@ public class PathEntry {
     preciseFileComparisonMode = Constants.PRECISE_FILE_COMPARISON_MODE;
   }
 
+  public String getFileName() {
+    return path.getFileName().toString();
+  }
+
   @Override
   public boolean equals(Object other) {
     if (this == other) return true;
@@ -0,0 +1,217 @@
+package tech.toparvion.util.jcudos.model.estimate;
+
+import tech.toparvion.util.jcudos.Constants.EstimationFormat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.DoubleSummaryStatistics;
+import java.util.List;
+import java.util.Locale;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Writes the estimations of class loading logs in a machine-readable format, i.e. per log, per source type counts and
+ * shared ratios along with their summary. The file is replaced atomically (by moving a temporary file in its place) so
+ * that it can be read at any moment, e.g. by node exporter's textfile collector in case of
+ * {@link EstimationFormat#PROMETHEUS PROMETHEUS} format.
+ *
+ * @author Toparvion
+ */
+public class EstimationWriter {
+  private static final String METRIC_PREFIX = "jcudos_estimate_";
+
+  private final EstimationFormat format;
+  private final Path outPath;
+
+  public EstimationWriter(EstimationFormat format, Path outPath) {
+    this.format = format;
+    this.outPath = outPath;
+  }
+
+  /**
+   * @return the conventional extension of the files of given format, e.g. {@code prom} for node exporter
+   */
+  public static String getExtension(EstimationFormat format) {
+    switch (format) {
+      case JSON:        return "json";
+      case CSV:         return "csv";
+      case PROMETHEUS:  return "prom";
+      default:          throw new IllegalArgumentException("Unknown estimation format: " + format);
+    }
+  }
+
+  public void write(List<FileEstimation> estimations) throws IOException {
+    Path tempPath = outPath.resolveSibling(outPath.getFileName() + ".tmp");
+    try (Writer out = Files.newBufferedWriter(tempPath, UTF_8)) {
+      switch (format) {
+        case JSON:        writeJson(estimations, out);        break;
+        case CSV:         writeCsv(estimations, out);         break;
+        case PROMETHEUS:  writePrometheus(estimations, out);  break;
+      }
+    }
+    try {
+      Files.move(tempPath, outPath, REPLACE_EXISTING, ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(tempPath, outPath, REPLACE_EXISTING);
+    }
+  }
+
+  //<editor-fold desc="JSON">
+  private static void writeJson(List<FileEstimation> estimations, Writer out) throws IOException {
+    List<FileEstimation> readEstimations = new ArrayList<>(estimations.size());
+    out.write("{\n  \"files\": [");
+    String delimiter = "\n";
+    for (FileEstimation estimation : estimations) {
+      out.write(delimiter);
+      delimiter = ",\n";
+      out.write("    {\"path\": " + quoteJson(estimation.getPath().toString()));
+      if (estimation.getFailure() != null) {
+        out.write(", \"error\": " + quoteJson(String.valueOf(estimation.getFailure())) + "}");
+        continue;
+      }
+      readEstimations.add(estimation);
+      out.write(", \"counts\": {");
+      SourceType[] types = SourceType.values();
+      for (int i = 0; i < types.length; i++) {
+        out.write(((i > 0) ? ", " : "") + quoteJson(types[i].name()) + ": " + estimation.getCount(types[i]));
+      }
+      out.write("}, \"total\": " + estimation.getTotalCount());
+      out.write(", \"sharedRatio\": " + formatRatio(estimation.getSharedRatio()) + "}");
+    }
+    DoubleSummaryStatistics stats = summarize(readEstimations);
+    out.write("\n  ],\n  \"summary\": {");
+    out.write("\"files\": " + estimations.size());
+    out.write(", \"failedFiles\": " + (estimations.size() - readEstimations.size()));
+    out.write(", \"estimatedFiles\": " + stats.getCount());
+    if (stats.getCount() > 0) {
+      out.write(", \"minSharedRatio\": " + formatRatio(stats.getMin()));
+      out.write(", \"maxSharedRatio\": " + formatRatio(stats.getMax()));
+      out.write(", \"averageSharedRatio\": " + formatRatio(stats.getAverage()));
+    }
+    out.write("}\n}\n");
+  }
+
+  private static String quoteJson(String value) {
+    StringBuilder sb = new StringBuilder(value.length() + 2).append('"');
+    for (char c : value.toCharArray()) {
+      switch (c) {
+        case '"':   sb.append("\\\""); break;
+        case '\\':  sb.append("\\\\"); break;
+        case '\n':  sb.append("\\n");  break;
+        case '\r':  sb.append("\\r");  break;
+        case '\t':  sb.append("\\t");  break;
+        default:
+          if (c < 0x20) {
+            sb.append(String.format("\\u%04x", (int) c));
+          } else {
+            sb.append(c);
+          }
+      }
+    }
+    return sb.append('"').toString();
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="CSV">
+  /**
+   * Writes a row per successfully read log; the summary can be derived from the rows.
+   */
+  private static void writeCsv(List<FileEstimation> estimations, Writer out) throws IOException {
+    StringBuilder header = new StringBuilder("path");
+    for (SourceType type : SourceType.values()) {
+      header.append(',').append(type.name().toLowerCase(Locale.ROOT));
+    }
+    out.write(header.append(",total,shared_ratio\n").toString());
+    for (FileEstimation estimation : estimations) {
+      if (estimation.getFailure() != null) {
+        continue;
+      }
+      StringBuilder row = new StringBuilder(quoteCsv(estimation.getPath().toString()));
+      for (SourceType type : SourceType.values()) {
+        row.append(',').append(estimation.getCount(type));
+      }
+      row.append(',').append(estimation.getTotalCount())
+         .append(',').append(formatRatio(estimation.getSharedRatio()))
+         .append('\n');
+      out.write(row.toString());
+    }
+  }
+
+  private static String quoteCsv(String value) {
+    if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+      return value;
+    }
+    return '"' + value.replace("\"", "\"\"") + '"';
+  }
+  //</editor-fold>
+
+  //<editor-fold desc="Prometheus">
+  /**
+   * Writes the estimations in Prometheus text exposition format as node exporter's textfile collector expects it.
+   */
+  private static void writePrometheus(List<FileEstimation> estimations, Writer out) throws IOException {
+    List<FileEstimation> readEstimations = new ArrayList<>(estimations.size());
+    for (FileEstimation estimation : estimations) {
+      if (estimation.getFailure() == null) {
+        readEstimations.add(estimation);
+      }
+    }
+    writeMetricHeader(out, "class_loads", "Number of classes loaded per log and source type.");
+    for (FileEstimation estimation : readEstimations) {
+      String logLabel = "log=" + quotePrometheus(estimation.getPath().toString());
+      for (SourceType type : SourceType.values()) {
+        String sourceLabel = "source=" + quotePrometheus(type.name().toLowerCase(Locale.ROOT));
+        out.write(METRIC_PREFIX + "class_loads{" + logLabel + ',' + sourceLabel + "} "
+                + estimation.getCount(type) + '\n');
+      }
+    }
+    writeMetricHeader(out, "shared_ratio", "Part of classes loaded from the shared archive per log.");
+    for (FileEstimation estimation : readEstimations) {
+      out.write(METRIC_PREFIX + "shared_ratio{log=" + quotePrometheus(estimation.getPath().toString()) + "} "
+              + formatRatio(estimation.getSharedRatio()) + '\n');
+    }
+    DoubleSummaryStatistics stats = summarize(readEstimations);
+    writeMetricHeader(out, "logs", "Number of estimated logs.");
+    out.write(METRIC_PREFIX + "logs " + stats.getCount() + '\n');
+    writeMetricHeader(out, "failed_logs", "Number of logs that failed to be read.");
+    out.write(METRIC_PREFIX + "failed_logs " + (estimations.size() - readEstimations.size()) + '\n');
+    if (stats.getCount() > 0) {
+      writeMetricHeader(out, "shared_ratio_average", "Average part of classes loaded from the shared archive.");
+      out.write(METRIC_PREFIX + "shared_ratio_average " + formatRatio(stats.getAverage()) + '\n');
+    }
+  }
+
+  private static void writeMetricHeader(Writer out, String name, String help) throws IOException {
+    out.write("# HELP " + METRIC_PREFIX + name + ' ' + help + '\n');
+    out.write("# TYPE " + METRIC_PREFIX + name + " gauge\n");
+  }
+
+  private static String quotePrometheus(String value) {
+    return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + '"';
+  }
+  //</editor-fold>
+
+  /**
+   * @return the statistics of shared ratios among the logs containing any class loading records
+   */
+  private static DoubleSummaryStatistics summarize(List<FileEstimation> readEstimations) {
+    DoubleSummaryStatistics stats = new DoubleSummaryStatistics();
+    for (FileEstimation estimation : readEstimations) {
+      if (estimation.getTotalCount() > 0) {
+        stats.accept(estimation.getSharedRatio());
+      }
+    }
+    return stats;
+  }
+
+  private static String formatRatio(double ratio) {
+    return String.format(Locale.ROOT, "%.4f", ratio);
+  }
+}
@@ -0,0 +1,61 @@
+package tech.toparvion.util.jcudos.model.estimate;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The numbers of classes loaded from every type of sources according to a single log.
+ *
+ * @author Toparvion
+ */
+public class FileEstimation {
+  private final Path path;
+  private final int[] counts = new int[SourceType.values().length];
+  /** the classes not loaded from the archive or {@code null} if they're not collected */
+  private final MissAnalysis.LogMisses misses;
+  private Exception failure;
+
+  public FileEstimation(Path path, boolean collectMisses) {
+    this.path = path;
+    this.misses = collectMisses ? new MissAnalysis.LogMisses() : null;
+  }
+
+  public void count(SourceType type) {
+    counts[type.ordinal()]++;
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public int getCount(SourceType type) {
+    return counts[type.ordinal()];
+  }
+
+  public int getTotalCount() {
+    return Arrays.stream(counts).sum();
+  }
+
+  /**
+   * @return the part of the classes loaded from the archive, from 0 to 1 (0 if no class has been loaded)
+   */
+  public double getSharedRatio() {
+    int totalCount = getTotalCount();
+    return (totalCount == 0) ? 0 : ((double) getCount(SourceType.SHARED) / totalCount);
+  }
+
+  public MissAnalysis.LogMisses getMisses() {
+    return misses;
+  }
+
+  /**
+   * @return the exception the log failed to be read with or {@code null} if it's read successfully
+   */
+  public Exception getFailure() {
+    return failure;
+  }
+
+  public void setFailure(Exception failure) {
+    this.failure = failure;
+  }
+}
@@ -0,0 +1,340 @@
+package tech.toparvion.util.jcudos.model.estimate;
+
+import tech.toparvion.util.jcudos.model.collate.entry.ClassListDirective;
+import tech.toparvion.util.jcudos.util.BinaryClassList;
+import tech.toparvion.util.jcudos.util.ZipDirectory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Finds out why the classes of class loading logs were not loaded from the shared archive (see {@link MissReason}) by
+ * comparing them against the shared class list and the shared classpath. The misses are summed up per source (JAR,
+ * directory, module, etc) and per package, both by count and by the size of class files. The sizes are taken from the
+ * sources themselves (if they're still available), each source being read once.
+ *
+ * @author Toparvion
+ */
+public class MissAnalysis {
+  private static final System.Logger log = System.getLogger(MissAnalysis.class.getSimpleName());
+
+  private static final String CLASS_SUFFIX = ".class";
+  private static final String DEFAULT_PACKAGE = "<default>";
+
+  /** binary names (with dots) of the shared class list's classes */
+  private final Set<String> listedClasses;
+  /** file names of the shared classpath's entries or {@code null} if the classpath is unknown */
+  private final Set<String> sharedJarNames;
+
+  private final int[] reasonCounts = new int[MissReason.values().length];
+  private final Map<String, MissStats> sourceStats = new HashMap<>();
+  private final Map<String, MissStats> packageStats = new HashMap<>();
+  /** source -> class file entry name -> class file size */
+  private final Map<String, Map<String, Long>> classSizes = new HashMap<>();
+  private long totalBytes;
+
+  /**
+   * @param listedClasses binary names of the classes from the shared class list
+   * @param sharedJarNames file names of the shared classpath entries or {@code null} if they're unknown (in this
+   *                       case no miss is considered to be caused by a private JAR)
+   */
+  public MissAnalysis(Set<String> listedClasses, Set<String> sharedJarNames) {
+    this.listedClasses = listedClasses;
+    this.sharedJarNames = sharedJarNames;
+  }
+
+  /**
+   * Reads class names from given class list (either text or binary one) skipping directives and comments.
+   * @return binary names (with dots) of the listed classes
+   */
+  public static Set<String> readClassList(Path listPath) throws IOException {
+    List<String> lines = BinaryClassList.isBinary(listPath)
+            ? BinaryClassList.open(listPath)
+            : Files.readAllLines(listPath);
+    Set<String> classNames = new HashSet<>(lines.size() * 4 / 3 + 1);
+    for (String line : lines) {
+      if (line.isEmpty() || line.startsWith("#") || ClassListDirective.isDirective(line)) {
+        continue;
+      }
+      int spaceIndex = line.indexOf(' ');     // custom loaders' records are followed by their IDs and sources
+      classNames.add(((spaceIndex < 0) ? line : line.substring(0, spaceIndex)).replace('/', '.'));
+    }
+    return classNames;
+  }
+
+  /**
+   * Reads classpath entries either from an arg-file (like the one composed for the shared archive) or from a
+   * directory listing.
+   * @return file names of the classpath entries
+   */
+  public static Set<String> readClasspath(Path classpathPath) throws IOException {
+    Set<String> fileNames = new HashSet<>();
+    if (Files.isDirectory(classpathPath)) {
+      try (Stream<Path> entries = Files.list(classpathPath)) {
+        entries.forEach(entry -> fileNames.add(entry.getFileName().toString()));
+      }
+      return fileNames;
+    }
+    String pathSeparator = System.getProperty("path.separator");
+    for (String line : Files.readAllLines(classpathPath)) {
+      String value = line.trim();
+      if (value.isEmpty() || value.startsWith("#") || value.startsWith("-")) {
+        continue;
+      }
+      if (value.endsWith("\\")) {
+        value = value.substring(0, value.length() - 1);     // line continuation
+      }
+      value = value.replace("\"", "").replace("\\\\", "\\");
+      for (String entry : value.split(pathSeparator)) {
+        if (!entry.isBlank()) {
+          fileNames.add(Paths.get(entry.trim()).getFileName().toString());
+        }
+      }
+    }
+    return fileNames;
+  }
+
+  /**
+   * Accounts the misses of a single log.
+   * @param archiveUsed whether any class of the log was loaded from the shared archive
+   */
+  public void add(LogMisses misses, boolean archiveUsed) {
+    misses.loads.forEach((source, classes) -> classes.forEach((className, count) -> {
+      MissReason reason = classify(source, className, archiveUsed);
+      long bytes = classSize(source, className) * count;
+      reasonCounts[reason.ordinal()] += count;
+      totalBytes += bytes;
+      sourceStats.computeIfAbsent(composeSourceKey(source), MissStats::new).add(reason, count, bytes);
+      packageStats.computeIfAbsent(extractPackage(className), MissStats::new).add(reason, count, bytes);
+    }));
+  }
+
+  public int getCount(MissReason reason) {
+    return reasonCounts[reason.ordinal()];
+  }
+
+  public int getTotalCount() {
+    return Arrays.stream(reasonCounts).sum();
+  }
+
+  public long getTotalBytes() {
+    return totalBytes;
+  }
+
+  /**
+   * @return the misses per source (JAR, directory, module or generating facility) ranked by given order
+   */
+  public List<MissStats> getSourceStats(Comparator<MissStats> order) {
+    return rank(sourceStats.values(), order);
+  }
+
+  /**
+   * @return the misses per package ranked by given order
+   */
+  public List<MissStats> getPackageStats(Comparator<MissStats> order) {
+    return rank(packageStats.values(), order);
+  }
+
+  private static List<MissStats> rank(Collection<MissStats> stats, Comparator<MissStats> order) {
+    List<MissStats> ranked = new ArrayList<>(stats);
+    ranked.sort(order.thenComparing(MissStats::getKey));
+    return ranked;
+  }
+
+  private MissReason classify(String source, String className, boolean archiveUsed) {
+    if (!archiveUsed) {
+      return MissReason.ARCHIVE_DISABLED;
+    }
+    if (source.startsWith("jar:")) {
+      return MissReason.CUSTOM_LOADER;
+    }
+    boolean fromFile = source.startsWith("file:");
+    if (!fromFile && !source.startsWith("jrt:")) {
+      return MissReason.GENERATED;
+    }
+    if (fromFile && sharedJarNames != null && !sharedJarNames.contains(extractFileName(source))) {
+      return MissReason.PRIVATE_JAR;
+    }
+    return listedClasses.contains(className) ? MissReason.NOT_ARCHIVED : MissReason.NOT_IN_LIST;
+  }
+
+  private static String composeSourceKey(String source) {
+    if (source.startsWith("file:")) {
+      return source.substring("file:".length());
+    }
+    if (source.startsWith("jar:") && source.endsWith("!/")) {
+      return source.substring("jar:".length(), source.length() - "!/".length());
+    }
+    return source;
+  }
+
+  private static String extractFileName(String source) {
+    String path = source.endsWith("/") ? source.substring(0, source.length() - 1) : source;
+    return path.substring(path.lastIndexOf('/') + 1);
+  }
+
+  private static String extractPackage(String className) {
+    int lastDot = className.lastIndexOf('.');
+    return (lastDot < 0) ? DEFAULT_PACKAGE : className.substring(0, lastDot);
+  }
+
+  //<editor-fold desc="Class sizes">
+  private long classSize(String source, String className) {
+    Map<String, Long> sizes = classSizes.computeIfAbsent(source, MissAnalysis::readClassSizes);
+    return sizes.getOrDefault(className.replace('.', '/') + CLASS_SUFFIX, 0L);
+  }
+
+  /**
+   * @return the sizes of all the class files of given source or an empty map if it's not available
+   */
+  private static Map<String, Long> readClassSizes(String source) {
+    Map<String, Long> sizes = new HashMap<>();
+    try {
+      if (source.startsWith("file:")) {
+        readFileSizes(Paths.get(URI.create(source)), sizes);
+
+      } else if (source.startsWith("jrt:")) {
+        FileSystem jrt = FileSystems.getFileSystem(URI.create("jrt:/"));
+        readFileSizes(jrt.getPath("modules", source.substring("jrt:/".length())), sizes);
+
+      } else if (source.startsWith("jar:")) {
+        // e.g. 'jar:file:/app.jar!/BOOT-INF/lib/lib.jar!/' or 'jar:file:/app.jar!/BOOT-INF/classes!/'
+        String[] parts = source.substring("jar:".length()).split("!/");
+        if (parts.length >= 2) {
+          readNestedSizes(Paths.get(URI.create(parts[0])), parts[1], sizes);
+        }
+      }
+
+    } catch (IOException | RuntimeException e) {
+      log.log(DEBUG, "Failed to read class sizes of ''{0}'': {1}", source, e);
+    }
+    return sizes;
+  }
+
+  private static void readFileSizes(Path path, Map<String, Long> sizes) throws IOException {
+    if (Files.isDirectory(path)) {
+      try (Stream<Path> files = Files.walk(path)) {
+        for (Path file : (Iterable<Path>) files::iterator) {
+          String name = path.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+          if (name.endsWith(CLASS_SUFFIX)) {
+            sizes.put(name, Files.size(file));
+          }
+        }
+      }
+    } else if (Files.isRegularFile(path)) {
+      try (FileChannel channel = FileChannel.open(path, READ)) {
+        for (ZipDirectory.Entry entry : ZipDirectory.read(channel).getEntries()) {
+          if (entry.getName().endsWith(CLASS_SUFFIX)) {
+            sizes.put(entry.getName(), entry.getSize());
+          }
+        }
+      }
+    }
+  }
+
+  private static void readNestedSizes(Path outerPath, String nestedName, Map<String, Long> sizes) throws IOException {
+    try (FileChannel channel = FileChannel.open(outerPath, READ)) {
+      ZipDirectory directory = ZipDirectory.read(channel);
+      ZipDirectory.Entry nestedEntry = directory.getEntry(nestedName);
+      if (nestedEntry == null || nestedEntry.isDirectory()) {
+        // not a nested JAR but a directory inside the outer one, e.g. 'BOOT-INF/classes'
+        String prefix = nestedName.endsWith("/") ? nestedName : (nestedName + '/');
+        for (ZipDirectory.Entry entry : directory.getEntries()) {
+          if (entry.getName().startsWith(prefix) && entry.getName().endsWith(CLASS_SUFFIX)) {
+            sizes.put(entry.getName().substring(prefix.length()), entry.getSize());
+          }
+        }
+        return;
+      }
+      try (ZipInputStream nested = new ZipInputStream(directory.getInputStream(nestedEntry))) {
+        for (ZipEntry entry = nested.getNextEntry(); entry != null; entry = nested.getNextEntry()) {
+          if (entry.getName().endsWith(CLASS_SUFFIX)) {
+            // the size may be unknown until the entry is read (if it's followed by a data descriptor)
+            long size = (entry.getSize() >= 0) ? entry.getSize() : nested.transferTo(OutputStream.nullOutputStream());
+            sizes.put(entry.getName(), size);
+          }
+        }
+      }
+    }
+  }
+  //</editor-fold>
+
+  /**
+   * The classes of a single log that were not loaded from the archive, along with the number of their loads. Meant to
+   * be filled by a single thread.
+   */
+  public static class LogMisses {
+    /** source -> class name -> the number of loads */
+    private final Map<String, Map<String, Integer>> loads = new HashMap<>();
+
+    public void add(String className, String source) {
+      loads.computeIfAbsent(source, key -> new HashMap<>()).merge(className, 1, Integer::sum);
+    }
+  }
+
+  /**
+   * The misses related to a single source or package.
+   */
+  public static class MissStats {
+    public static final Comparator<MissStats> BY_COUNT = Comparator.comparingInt((MissStats stats) -> stats.getCount())
+            .reversed();
+    public static final Comparator<MissStats> BY_BYTES = Comparator.comparingLong(MissStats::getBytes).reversed();
+
+    private final String key;
+    private final int[] reasonCounts = new int[MissReason.values().length];
+    private int count;
+    private long bytes;
+
+    MissStats(String key) {
+      this.key = key;
+    }
+
+    void add(MissReason reason, int count, long bytes) {
+      this.reasonCounts[reason.ordinal()] += count;
+      this.count += count;
+      this.bytes += bytes;
+    }
+
+    /**
+     * @return either the source (JAR path, nested JAR URL, module, etc) or the package name
+     */
+    public String getKey() {
+      return key;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getBytes() {
+      return bytes;
+    }
+
+    public int getCount(MissReason reason) {
+      return reasonCounts[reason.ordinal()];
+    }
+
+    /**
+     * @return non-zero counts per reason, e.g. {@code NOT_IN_LIST=12, PRIVATE_JAR=3}
+     */
+    public String describeReasons() {
+      StringJoiner joiner = new StringJoiner(", ");
+      for (MissReason reason : MissReason.values()) {
+        if (reasonCounts[reason.ordinal()] > 0) {
+          joiner.add(reason + "=" + reasonCounts[reason.ordinal()]);
+        }
+      }
+      return joiner.toString();
+    }
+  }
+}
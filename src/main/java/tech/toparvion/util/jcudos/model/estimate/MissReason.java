@@ -0,0 +1,22 @@
+package tech.toparvion.util.jcudos.model.estimate;
+
+/**
+ * The reasons why a class was loaded from its original source rather than from the shared archive. They are listed in
+ * the order they're checked in, i.e. the first applicable reason is assigned to a miss.
+ *
+ * @author Toparvion
+ */
+public enum MissReason {
+  /** the archive was not used by the process at all (no class was loaded from it) */
+  ARCHIVE_DISABLED,
+  /** the class was generated at runtime (e.g. a lambda proxy or a dynamic proxy) */
+  GENERATED,
+  /** the class was loaded by a custom class loader, e.g. from a nested JAR by Spring Boot's loader */
+  CUSTOM_LOADER,
+  /** the class was loaded from a JAR or directory that is not on the shared classpath */
+  PRIVATE_JAR,
+  /** the class is absent in the shared class list */
+  NOT_IN_LIST,
+  /** the class is in the shared class list but still absent in the archive, e.g. it failed to be dumped */
+  NOT_ARCHIVED
+}
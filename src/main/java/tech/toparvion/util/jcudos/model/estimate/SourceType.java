@@ -0,0 +1,33 @@
+package tech.toparvion.util.jcudos.model.estimate;
+
+/**
+ * The types of class sources as they're shown in class loading logs ({@code -Xlog:class+load}).
+ *
+ * @author Toparvion
+ */
+public enum SourceType {
+  SHARED,
+  FILE,
+  JAR,
+  JRT,
+  GENERATED,
+  OTHER;
+
+  /** the beginnings of source values along with the source types they denote */
+  private static final String[] SOURCE_PREFIXES = {"shared", "file:", "jar:", "jrt:", "__"};
+  private static final SourceType[] SOURCE_PREFIX_TYPES = {SHARED, FILE, JAR, JRT, GENERATED};
+
+  /**
+   * @param classLoadRecord a line of class loading log
+   * @param sourceStart the index of the source value in the line
+   * @return the type of the source
+   */
+  public static SourceType detect(String classLoadRecord, int sourceStart) {
+    for (int i = 0; i < SOURCE_PREFIXES.length; i++) {
+      if (classLoadRecord.startsWith(SOURCE_PREFIXES[i], sourceStart)) {
+        return SOURCE_PREFIX_TYPES[i];
+      }
+    }
+    return OTHER;
+  }
+}
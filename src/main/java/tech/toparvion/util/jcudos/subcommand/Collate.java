@@ -3,16 +3,31 @@ package tech.toparvion.util.jcudos.subcommand;
 import io.simonis.cl4cds;
 import tech.toparvion.util.jcudos.Constants;
 import tech.toparvion.util.jcudos.Constants.ListConversion;
+import tech.toparvion.util.jcudos.Constants.ListFormat;
 import tech.toparvion.util.jcudos.infra.JCudosVersionProvider;
+import tech.toparvion.util.jcudos.model.collate.ClassRecordWriter;
 import tech.toparvion.util.jcudos.model.collate.CollationResult;
+import tech.toparvion.util.jcudos.model.collate.MinHashSignature;
+import tech.toparvion.util.jcudos.model.collate.SimilarityReport;
+import tech.toparvion.util.jcudos.model.collate.entry.ClassListDirective;
+import tech.toparvion.util.jcudos.model.collate.entry.ClassRecordEntry;
 import tech.toparvion.util.jcudos.model.collate.entry.NestedJarEntry;
 import tech.toparvion.util.jcudos.model.collate.entry.PathEntry;
+import tech.toparvion.util.jcudos.model.exception.JCudosException;
+import tech.toparvion.util.jcudos.util.BinaryClassList;
+import tech.toparvion.util.jcudos.util.ExternalCollator;
 import tech.toparvion.util.jcudos.util.PathUtils;
 
 import java.io.*;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
@@ -24,6 +39,8 @@ import static picocli.CommandLine.Help.Visibility.ALWAYS;
 import static tech.toparvion.util.jcudos.Constants.BOOT_INF_DIR;
 import static tech.toparvion.util.jcudos.Constants.ListConversion.AUTO;
 import static tech.toparvion.util.jcudos.Constants.ListConversion.ON;
+import static tech.toparvion.util.jcudos.Constants.ListFormat.BINARY;
+import static tech.toparvion.util.jcudos.Constants.ListFormat.TEXT;
 import static tech.toparvion.util.jcudos.Constants.WEB_INF_DIR;
 
 /**
@@ -52,6 +69,10 @@ public class Collate implements Callable<CollationResult> {
   @Option(names = {"--intersection-out", "-i"})
   private Path intersectionOutPath;
 
+  @Option(names = {"--owns-out-dir", "-O"}, description = "Directory to write every list's own entries into " +
+          "(one '<list-path>.owns' file per list)")
+  private Path ownsOutDir;
+
   /**
    * @apiNote when using it from command line, the option must be set as '--precise-compare' 
    * (not as '--precise-compare true' i.e. no explicit 'true' or 'false' word required)
@@ -64,13 +85,61 @@ public class Collate implements Callable<CollationResult> {
           description = "Conversion from -Xlog to plain class list file format: ${COMPLETION-CANDIDATES}.",
           showDefaultValue = ALWAYS)
   private ListConversion listConversion = AUTO;
+
+  @Option(names = {"--out-format", "-f"},
+          description = "Format of merging and intersection output files: ${COMPLETION-CANDIDATES}.",
+          showDefaultValue = ALWAYS)
+  private ListFormat outFormat = TEXT;
   
+  @Option(names = {"--similarity-out", "-s"}, description = "Path to write the report on pairwise similarity of " +
+          "the lists into (estimated with MinHash)")
+  private Path similarityOutPath;
+
+  @Option(names = {"--streaming", "-S"}, description = "Collate lists by means of external sorting and merging to " +
+          "keep heap usage bounded regardless of lists number and size. Supports class lists only.")
+  private boolean streaming = false;
+
+  @Option(names = {"--spill-dir"}, description = "Directory for temporary files of streaming mode. Defaults to " +
+          "system temp directory.")
+  private Path spillDir = Paths.get(System.getProperty("java.io.tmpdir"));
+
+  @Option(names = {"--chunk-size"}, description = "Maximum number of names to be sorted in heap at once in " +
+          "streaming mode.", showDefaultValue = ALWAYS)
+  private int chunkSize = 100_000;
+
+  @Option(names = {"--custom-loaders", "-L"}, description = "Keep full records (with IDs, super classes, interfaces " +
+          "and sources) of the classes loaded by custom class loaders through collation. Such classes are identified " +
+          "by name and source JAR file name. Not compatible with streaming mode and binary output format.")
+  private boolean customLoaders = false;
+
+  @Option(names = {"--sources-dir"}, description = "Directory to rewrite custom loaders' class sources into (as " +
+          "<sources-dir>/<jar-file-name>) when writing merging and intersection in custom loaders mode. Records " +
+          "whose JAR is absent there are dropped along with the records depending on them.")
+  private Path sourcesDir;
+
+  @Option(names = {"--threads", "-t"}, description = "Number of threads to read (and convert) list files with.",
+          showDefaultValue = ALWAYS)
+  private int threads = Runtime.getRuntime().availableProcessors();
+
   private Set<PathMatcher> exclusionMatchers = new HashSet<>();
+  /** Stays {@code null} unless streaming mode is enabled */
+  private ExternalCollator externalCollator;
+  /** MinHash signatures of the lists; stays empty unless the similarity report is requested */
+  private final Map<String, MinHashSignature> signatures = new LinkedHashMap<>();
+  /** Shared by all the (concurrent) conversions of one collation to let them reuse nested JARs and class checks */
+  private cl4cds converter;
+  /** List files being read (and converted) in parallel; they are put into collation in the order of submission */
+  private final List<PendingList> pendingLists = new ArrayList<>();
 
   @Override
   public CollationResult call() {
     long startTime = setup();
     Map<String, List<?>> allEntries = new HashMap<>();
+    ExecutorService listReaders = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+      var thread = new Thread(runnable, "list-reader");
+      thread.setDaemon(true);       // not to prevent JVM from exiting if collation fails half way
+      return thread;
+    });
     for (String arg : args) {
       try {
         if (arg.contains("*") || arg.contains("{")) {
@@ -85,7 +154,7 @@ public class Collate implements Callable<CollationResult> {
             if (Files.isDirectory(matchedPath)) {
               log.log(DEBUG, "Processing path ''{0}'' as directory...", arg);
               List<PathEntry> dirEntries = getDirFileNames(matchedPath);
-              allEntries.put(matchedPath.toString(), dirEntries);
+              putList(allEntries, matchedPath.toString(), dirEntries);
               log.log(INFO, "{0} entries have been put under ''{1}'' dir name", dirEntries.size(), matchedPath);
 
             } else {
@@ -96,14 +165,12 @@ public class Collate implements Callable<CollationResult> {
 
                 } else {
                   log.log(DEBUG, "Processing path ''{0}'' as list file...", matchedPath);
-                  List<String> lines = readClassNames(matchedPath);
-                  allEntries.put(matchedPath.toString(), lines);
-                  log.log(INFO, "{0} lines have been put under ''{1}'' matched file name", lines.size(), matchedPath);
+                  submitList(listReaders, matchedPath.toString(), matchedPath, "matched file name");
                 } 
 
               } else {
                 log.log(WARNING, "Path ''{0}'' doesn''t point to existing and readable file. Skipped.", matchedPath);
-                allEntries.put(matchedPath.toString(), List.of());
+                putList(allEntries, matchedPath.toString(), List.of());
               }
             }
           }
@@ -116,19 +183,17 @@ public class Collate implements Callable<CollationResult> {
           if (Files.isDirectory(concretePath)) {
             log.log(DEBUG, "Processing path ''{0}'' as directory...", arg);
             List<PathEntry> dirEntries = getDirFileNames(concretePath);
-            allEntries.put(concretePath.toString(), dirEntries);
+            putList(allEntries, concretePath.toString(), dirEntries);
             log.log(INFO, "{0} entries have been put under ''{1}'' dir concrete name", dirEntries.size(), concretePath);
             
           } else {
             if (Files.isReadable(concretePath)) {
               log.log(DEBUG, "Processing path ''{0}'' as list file...", concretePath);
-              List<String> lines = readClassNames(concretePath);
-              allEntries.put(arg, lines);
-              log.log(INFO, "{0} lines have been put under ''{1}'' concrete file name", lines.size(), concretePath);
+              submitList(listReaders, arg, concretePath, "concrete file name");
               
             } else {
               log.log(WARNING,"Path ''{0}'' doesn't point to existing and readable file. Skipped.", concretePath);
-              allEntries.put(concretePath.toString(), List.of());
+              putList(allEntries, concretePath.toString(), List.of());
             } 
           } 
         }
@@ -138,21 +203,45 @@ public class Collate implements Callable<CollationResult> {
         e.printStackTrace();
       }
     }
+    try {
+      putPendingLists(allEntries);
+    } finally {
+      listReaders.shutdownNow();
+      converter.close();
+    }
     log.log(INFO, "Loaded {0} lists", allEntries.size());
     if (allEntries.isEmpty()) {
       return null;
     }
     
     // do the collation itself
-    CollationResult collationResult = collate(allEntries);
+    CollationResult collationResult;
+    if (externalCollator != null) {
+      try {
+        collationResult = collateExternally(allEntries);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    } else {
+      collationResult = collate(allEntries);
+    }
+
+    if (outFormat == BINARY && collationResult.hasDirectives()
+            && (mergingOutPath != null || intersectionOutPath != null)) {
+      log.log(WARNING, "Binary output format cannot hold class list directives found in the lists. " +
+              "Falling back to text output.");
+    }
 
     // merging output
     if (mergingOutPath != null) {
       mergingOutPath = PathUtils.absolutify(mergingOutPath, root);
       try {
-        Set<String> merging = collationResult.getMerging();
-        Files.write(mergingOutPath, merging);
-        log.log(INFO, "Merging result ({0} items) has been written to ''{1}''", merging.size(), mergingOutPath);
+        int mergingSize = (customLoaders || collationResult.hasDirectives())
+                ? new ClassRecordWriter(absolutifySourcesDir()).write(collationResult.getMergingEntries(), mergingOutPath)
+                : (outFormat == BINARY)
+                ? writeBinary(collationResult.getMerging(), mergingOutPath)
+                : collationResult.writeMerging(mergingOutPath);
+        log.log(INFO, "Merging result ({0} items) has been written to ''{1}''", mergingSize, mergingOutPath);
         
       } catch (IOException e) {
         e.printStackTrace();
@@ -163,14 +252,47 @@ public class Collate implements Callable<CollationResult> {
     if (intersectionOutPath != null) {
       intersectionOutPath = PathUtils.absolutify(intersectionOutPath, root);
       try {
-        Set<String> intersection = collationResult.getIntersection();
-        Files.write(intersectionOutPath, intersection);
-        log.log(INFO, "Intersection result ({0} items) has been written to ''{1}''", intersection.size(), intersectionOutPath);
+        int intersectionSize = (customLoaders || collationResult.hasDirectives())
+                ? new ClassRecordWriter(absolutifySourcesDir()).write(collationResult.getIntersectionEntries(), 
+                        intersectionOutPath)
+                : (outFormat == BINARY)
+                ? writeBinary(collationResult.getIntersection(), intersectionOutPath)
+                : collationResult.writeIntersection(intersectionOutPath);
+        log.log(INFO, "Intersection result ({0} items) has been written to ''{1}''", intersectionSize, intersectionOutPath);
         
       } catch (IOException e) {
         e.printStackTrace();
       }
     }
+
+    // owns output
+    if (ownsOutDir != null) {
+      ownsOutDir = PathUtils.absolutify(ownsOutDir, root);
+      try {
+        Files.createDirectories(ownsOutDir);
+        for (String listName : collationResult.getListNames()) {
+          Path ownsOutPath = ownsOutDir.resolve(composeOwnsFileName(listName));
+          int ownsSize = collationResult.writeOwns(listName, ownsOutPath);
+          log.log(INFO, "Own entries of ''{0}'' ({1} items) have been written to ''{2}''", listName, ownsSize,
+                  ownsOutPath);
+        }
+
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+    // similarity output
+    if (similarityOutPath != null) {
+      similarityOutPath = PathUtils.absolutify(similarityOutPath, root);
+      try {
+        new SimilarityReport(signatures, collationResult.getMerging().size()).write(similarityOutPath);
+        log.log(INFO, "Similarity report on {0} lists has been written to ''{1}''", signatures.size(),
+                similarityOutPath);
+
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
     long execTime = System.currentTimeMillis() - startTime;
     log.log(INFO, "Task execution took {0} ms.", execTime);
     return collationResult;
@@ -186,10 +308,96 @@ public class Collate implements Callable<CollationResult> {
     // then store selected (or default) comparison mode in global value to make it accessible from anywhere 
     Constants.PRECISE_FILE_COMPARISON_MODE = preciseFileComparisonMode;
     log.log(INFO, "File comparison mode: {0}", preciseFileComparisonMode ? "precise" : "rough");
+    if (customLoaders && (streaming || outFormat == BINARY)) {
+      log.log(WARNING, "Custom loaders mode is not compatible with streaming mode and binary output format. " +
+              "Falling back to in-memory collation and text output.");
+      streaming = false;
+      outFormat = TEXT;
+    }
+    converter = new cl4cds()
+            .withClassesOnly(!customLoaders)
+            .withCompactIDs(false)      // to avoid excess work as IDs are either not needed or re-assigned anyway 
+            .withNestedJarsExtraction(false)    // only JAR file names are needed from the sources
+            .withDebug(log.isLoggable(DEBUG));
+    if (streaming && chunkSize < 1) {
+      log.log(ERROR, "--chunk-size must be positive. ''{0}'' is incorrect.", chunkSize);
+      throw new JCudosException();
+    }
+    if (streaming && externalCollator == null) {
+      try {
+        externalCollator = new ExternalCollator(spillDir, chunkSize);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
     
     return startTime;
   }
 
+  /**
+   * Puts given list of entries into {@code allEntries} map and, if the similarity report is requested, computes the
+   * list's MinHash signature right away, while the list is at hand.
+   */
+  private void putList(Map<String, List<?>> allEntries, String listName, List<?> entries) {
+    if (externalCollator != null && !(entries instanceof BinaryClassList) && !entries.isEmpty()) {
+      log.log(WARNING, "''{0}'' is not a class list and thus cannot be collated in streaming mode. Skipped.",
+              listName);
+      return;
+    }
+    allEntries.put(listName, entries);
+    if (similarityOutPath != null) {
+      var signature = new MinHashSignature();
+      for (Object entry : entries) {
+        // directories' entries are compared by file names, not by absolute paths
+        signature.add((entry instanceof PathEntry)
+                ? ((PathEntry) entry).getFileName()
+                : entry.toString());
+      }
+      signatures.put(composeShortName(listName), signature);
+    }
+  }
+
+  /**
+   * Starts reading (and converting if needed) of given list file in background.
+   */
+  private void submitList(ExecutorService listReaders, String listName, Path listPath, String nameKind) 
+          throws IOException {
+    if (listConversion == AUTO && !BinaryClassList.isBinary(listPath)) {   // try to auto detect the type of the file
+      listConversion = PathUtils.detectClassListType(listPath);
+    }
+    Future<List<?>> lines = listReaders.submit(() -> customLoaders 
+            ? readClassRecords(listPath) 
+            : readClassNames(listPath));
+    pendingLists.add(new PendingList(listName, listPath, nameKind, lines));
+  }
+
+  /**
+   * Waits for all the submitted list files to be read and puts them into {@code allEntries} in submission order.
+   */
+  private void putPendingLists(Map<String, List<?>> allEntries) {
+    for (PendingList pendingList : pendingLists) {
+      try {
+        List<?> lines = pendingList.lines.get();
+        putList(allEntries, pendingList.name, lines);
+        log.log(INFO, "{0} lines have been put under ''{1}'' {2}", lines.size(), pendingList.path, 
+                pendingList.nameKind);
+
+      } catch (ExecutionException e) {
+        log.log(ERROR, "Failed to process argument ''{0}''. Skipped.", pendingList.path);
+        e.getCause().printStackTrace();
+
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while reading list files", e);
+      }
+    }
+    pendingLists.clear();
+  }
+
+  private Path absolutifySourcesDir() {
+    return (sourcesDir == null) ? null : PathUtils.absolutify(sourcesDir, root);
+  }
+
   private boolean filterOutExclusions(Path path) {
     return exclusionMatchers.stream()
             .filter(matcher -> matcher.matches(path))
@@ -197,53 +405,91 @@ public class Collate implements Callable<CollationResult> {
             .isEmpty();
   }
 
-  private List<String> readClassNames(Path matchedPath) throws IOException {
-    if (listConversion == AUTO) {     // try to auto detect the type of the file
-      listConversion = PathUtils.detectClassListType(matchedPath);
+  private List<?> readClassNames(Path matchedPath) throws IOException {
+    if (BinaryClassList.isBinary(matchedPath)) {
+      log.log(DEBUG, "Mapping ''{0}'' as binary class list...", matchedPath);
+      return BinaryClassList.open(matchedPath);     // no decoding happens here, entries are read on demand
+    }
+    // by now the list conversion has been resolved from AUTO by submitList() method
+    if (externalCollator != null) {
+      if (listConversion == ON) {
+        var sorter = externalCollator.newSorter();
+        convertList(matchedPath, sorter::add);
+        return sorter.finish();
+      }
+      try (var reader = Files.newBufferedReader(matchedPath)) {
+        return externalCollator.sort(reader.lines()
+                .map(line -> ClassListDirective.isDirective(line) ? ClassListDirective.parse(line).toString() : line)
+                .iterator());
+      }
     }
     return (listConversion == ON)        // here only ENABLED and DISABLED values are possible
             ? convertList(matchedPath)
-            : Files.readAllLines(matchedPath);
+            : readClassList(matchedPath);
+  }
+
+  /**
+   * Reads given plain class list turning its directives (e.g. {@code @lambda-proxy}) into {@link ClassListDirective}
+   * entries so that they are collated by their meaning rather than by exact spelling.
+   */
+  private List<Object> readClassList(Path matchedPath) throws IOException {
+    List<Object> entries = new ArrayList<>(10_000);
+    try (var reader = Files.newBufferedReader(matchedPath)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        entries.add(ClassListDirective.isDirective(line) ? ClassListDirective.parse(line) : line);
+      }
+    }
+    return entries;
+  }
+
+  /**
+   * Reads given list as full class records, converting it from -Xlog format if needed.
+   */
+  private List<Object> readClassRecords(Path matchedPath) throws IOException {
+    var parser = new ClassRecordEntry.Parser();
+    if (BinaryClassList.isBinary(matchedPath)) {
+      BinaryClassList.open(matchedPath).forEach(parser::add);     // binary lists keep class names only
+    } else if (listConversion == ON) {
+      convertList(matchedPath, parser::add);
+    } else {
+      try (var reader = Files.newBufferedReader(matchedPath)) {
+        reader.lines().forEach(parser::add);
+      }
+    }
+    if (parser.getUnresolvedCount() > 0) {
+      log.log(WARNING, "{0} records of ''{1}'' refer to unknown klass IDs. Skipped.", parser.getUnresolvedCount(),
+              matchedPath);
+    }
+    return parser.getEntries();
   }
 
   private List<String> convertList(Path matchedPath) throws IOException {
+    List<String> lines = new ArrayList<>(10_000);
+    convertList(matchedPath, lines::add);
+    return lines;
+  }
+
+  /**
+   * Converts given -Xlog file into class list pushing the class names into given consumer as soon as they're parsed.
+   */
+  private void convertList(Path matchedPath, Consumer<String> classNames) throws IOException {
     log.log(DEBUG, "Converting ''{0}'' log into plain class list...", matchedPath);
     long startTime = System.currentTimeMillis();
-    byte[] convertedBytes = invokeCl4cds(matchedPath);
-    List<String> lines = new ArrayList<>(10_000);
-    try (var inReader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(convertedBytes), UTF_8))) {
-      String line;
-      while ((line = inReader.readLine()) != null) {
-        if (!line.contains("$$FastClassBySpringCGLIB$$")) {
-          lines.add(line);
+    var recordsCount = new AtomicInteger();
+    // as no sources get into classes-only output, nested JARs are read in place and never extracted into FatJarTmp
+    try (var bufReader = Files.newBufferedReader(matchedPath, UTF_8)) {
+      converter.convert(bufReader, record -> {                    // the single call to cl4cds itself
+        if (!record.contains("$$FastClassBySpringCGLIB$$")) {
+          classNames.accept(record);
+          recordsCount.incrementAndGet();
         }
-      }
+      });
+    } catch (UncheckedIOException e) {
+      throw e.getCause();     // e.g. from external sorter
     }
     long took = (System.currentTimeMillis() - startTime);
     log.log(INFO, "Conversion of ''{0}'' log into plain class list took {1} ms and resulted in {2} records.",
-            matchedPath, took, lines.size());
-    return lines;
-  }
-
-  private byte[] invokeCl4cds(Path matchedPath) throws IOException {
-    // prepare a buffer to store raw result of cl4cds
-    var outStream = new ByteArrayOutputStream(0xffff);    // 65K to begin with
-    // call the tool to parse given file 
-    cl4cds.ClassesOnly = true;
-    cl4cds.CompactIDs = false;    // to avoid excess work as we don't need IDs at all 
-    cl4cds.DBG = log.isLoggable(DEBUG);
-    Path fatJarTmpDir = Paths.get(System.getProperty("java.io.tmpdir"), "cl4cds");
-    cl4cds.FatJarTmp = fatJarTmpDir.toString();
-    try (var bufReader = Files.newBufferedReader(matchedPath, UTF_8);
-         var outPrintStream = new PrintStream(outStream)) {
-      cl4cds.convert(bufReader, outPrintStream);                  // the single call to cl4cds itself
-    } finally {
-      PathUtils.cleanOutDir(fatJarTmpDir);
-      Files.delete(fatJarTmpDir);
-    }
-    // store the output into byte array for further reading
-    return outStream.toByteArray();
-    // outStream.close();   // has no effect, see javadoc
+            matchedPath, took, recordsCount.get());
   }
 
   /**
@@ -267,7 +513,7 @@ public class Collate implements Callable<CollationResult> {
               .map(NestedJarEntry::new)
               //.peek(System.out::println)
               .collect(toList());
-      allEntries.put(fatJarPath.toString(), jars);
+      putList(allEntries, fatJarPath.toString(), jars);
       log.log(INFO, "{0} lines have been put under ''{1}'' fat JAR path", jars.size(), fatJarPath);
     }
   }
@@ -302,15 +548,33 @@ public class Collate implements Callable<CollationResult> {
     for (List<?> objects : allEntries.values()) {
       merging.addAll(objects);                  // this call also relies on equals method of the entries
     }
-    // owns (entries which are specific to each list of entries)
-    Map<String, List<?>> owns = new HashMap<>(allEntries.size());
-    allEntries.forEach((name, lines) -> owns.put(name, new ArrayList<>(lines)));
-    owns.values().forEach(list -> list.removeAll(intersection));
+    // owns (entries which are specific to each list of entries) are not copied here but computed lazily by the result
     
-    // statistics
+    logStatistics(allEntries, merging.size(), intersection.size());
+//    for (Map.Entry<String, List<String>> listEntry : allEntries.entrySet()) {
+//      int entrySize = listEntry.getValue().size();
+//      int ownElements = entrySize - intersection.size();
+//      double ownElementsShare = ((double) ownElements / (double) entrySize) * 100.0;
+//      System.out.printf("List '%s'\t contains %d own elements of %d (%.0f%%)\n", listEntry.getKey(), ownElements,
+//              entrySize, ownElementsShare);
+//    }
+    return new CollationResult(merging, intersection, allEntries);
+  }
+
+  /**
+   * Collates given lists by means of k-way merge of their sorted spill files. Unlike {@link #collate(Map)}, it
+   * doesn't load any list into heap.
+   */
+  private CollationResult collateExternally(Map<String, List<?>> allEntries) throws IOException {
+    CollationResult collationResult = externalCollator.collate(allEntries);
+    logStatistics(allEntries, collationResult.getMerging().size(), collationResult.getIntersection().size());
+    return collationResult;
+  }
+
+  private void logStatistics(Map<String, List<?>> allEntries, int mergingSize, int intersectionSize) {
     LongSummaryStatistics interStats = allEntries.values()
             .stream()
-            .mapToDouble(lines -> (double) intersection.size() / (double) lines.size())
+            .mapToDouble(lines -> (double) intersectionSize / (double) lines.size())
             .mapToLong(value -> Math.round(value * 100.0))
             .summaryStatistics();
     IntSummaryStatistics sizeStats = allEntries.values().stream()
@@ -322,20 +586,44 @@ public class Collate implements Callable<CollationResult> {
         "\n=================================================\n" +
         String.format("List sizes: min=%d, avg=%.0f, max=%d, cnt=%d\n",
             sizeStats.getMin(), sizeStats.getAverage(), sizeStats.getMax(), sizeStats.getCount()) +
-        String.format("Merged list size:  %d\n", merging.size()) +
-        String.format("Intersection size: %d\n", intersection.size()) +
+        String.format("Merged list size:  %d\n", mergingSize) +
+        String.format("Intersection size: %d\n", intersectionSize) +
         String.format("Intersection stats: min=%d%%, avg=%.0f%%, max=%d%%\n",
             interStats.getMin(), interStats.getAverage(), interStats.getMax()) +
         "=================================================";
     log.log(INFO, logMessage);
-//    for (Map.Entry<String, List<String>> listEntry : allEntries.entrySet()) {
-//      int entrySize = listEntry.getValue().size();
-//      int ownElements = entrySize - intersection.size();
-//      double ownElementsShare = ((double) ownElements / (double) entrySize) * 100.0;
-//      System.out.printf("List '%s'\t contains %d own elements of %d (%.0f%%)\n", listEntry.getKey(), ownElements,
-//              entrySize, ownElementsShare);
-//    }
-    return new CollationResult(merging, intersection, owns);
+  }
+
+  /**
+   * Writes given names in binary format; in streaming mode the names are already sorted and thus can be written
+   * without loading them into heap.
+   */
+  private int writeBinary(List<String> names, Path outPath) throws IOException {
+    return (externalCollator != null)
+            ? BinaryClassList.writeSorted(names, outPath)
+            : BinaryClassList.write(names, outPath);
+  }
+
+  /**
+   * Turns given list name (usually a path) into a flat file name, e.g. {@code /app/log/classes.list} into
+   * {@code app_log_classes.list.owns}.
+   */
+  private String composeOwnsFileName(String listName) {
+    String flatName = composeShortName(listName)
+            .replaceAll("[\\\\/:]+", "_")
+            .replaceAll("^_", "");
+    return flatName + ".owns";
+  }
+
+  /**
+   * @return given list name (usually a path) relative to the root directory if possible
+   */
+  private String composeShortName(String listName) {
+    Path listPath = Paths.get(listName);
+    if (listPath.startsWith(root)) {
+      listPath = root.relativize(listPath);
+    }
+    return listPath.toString();
   }
 
   public void setArgs(List<String> args) {
@@ -349,4 +637,22 @@ public class Collate implements Callable<CollationResult> {
   public void setExclusionGlobs(Set<String> exclusionGlobs) {
     this.exclusionGlobs = exclusionGlobs;
   }
+
+  public void setCustomLoaders(boolean customLoaders) {
+    this.customLoaders = customLoaders;
+  }
+
+  private static class PendingList {
+    private final String name;
+    private final Path path;
+    private final String nameKind;
+    private final Future<List<?>> lines;
+
+    PendingList(String name, Path path, String nameKind, Future<List<?>> lines) {
+      this.name = name;
+      this.path = path;
+      this.nameKind = nameKind;
+      this.lines = lines;
+    }
+  }
 }
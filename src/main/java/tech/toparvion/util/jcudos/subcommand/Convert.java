@@ -1,24 +1,19 @@
 package tech.toparvion.util.jcudos.subcommand;
 
-import tech.toparvion.util.jcudos.Constants;
 import tech.toparvion.util.jcudos.infra.JCudosVersionProvider;
+import tech.toparvion.util.jcudos.util.FatJarSplitter;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.jar.*;
-import java.util.zip.ZipEntry;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
-import static java.lang.System.Logger.Level.*;
+import static java.lang.System.Logger.Level.INFO;
 import static picocli.CommandLine.Command;
 import static picocli.CommandLine.Option;
-import static tech.toparvion.util.jcudos.Constants.BOOT_INF_DIR;
-import static tech.toparvion.util.jcudos.Constants.WEB_INF_DIR;
 
 /**
  * @author Toparvion
@@ -37,6 +32,15 @@ public class Convert implements Runnable {
       "file. Defaults to parent directory of input JAR file.")
   private Path slimJarDir;
 
+  @Option(names = {"--store", "-s"}, description = "Store the slim JAR entries uncompressed. This makes the JAR " +
+      "larger but saves the CPU time the JVM spends inflating the classes not covered by the shared archive.")
+  private boolean store = false;
+
+  @Option(names = {"--benchmark", "-b"}, paramLabel = "<iterations>", description = "After the conversion, compare " +
+      "the time of reading all the classes from the compressed and uncompressed slim JARs (the latter is created " +
+      "temporarily) averaged over given number of iterations.")
+  private int benchmarkIterations = 0;
+
   /**
    * @implNote Method does NOT check if given JAR is Spring Boot fat JAR.
    */
@@ -44,96 +48,69 @@ public class Convert implements Runnable {
   public void run() {
     try {
       // compose path to resulting (slim) JAR (that should be in the form of "<source-jar-name>.slim.jar")
-      String targetJarName = fatJarPath.getFileName().toString().replaceAll("(?i)\\.(jar)$", ".slim.$1");
       if (slimJarDir == null) {
         slimJarDir = fatJarPath.getParent();
       }
-      Path targetJarPath = slimJarDir.resolve(targetJarName);
-      // open the source fat JAR for reading
-      try (OutputStream targetOutStream = Files.newOutputStream(targetJarPath)) {
-        try (InputStream sourceInStream = Files.newInputStream(fatJarPath)) {
-          try (JarInputStream sourceJarInStream = new JarInputStream(sourceInStream)) {
-            // Manifest manifest = sourceJarInStream.getManifest();   <- this does not work (return null) because:
-            /* JarInputStream relies on the fact that MANIFEST.MF is one of the first entries in the JAR, but in case of 
-             fat JAR this is not true because Spring Boot composes the archive in its own way. Particularly, the first
-             entry of the fat JAR is 'org/' directory. That is why jCuDoS have to manually detect and read the manifest.
-             The same reason makes jCuDoS write the manifest as an ordinary entry and don't rely on JarOutputStream's
-             constructor (because it will immediately write out the manifest which is not ready yet). */
-            try (JarOutputStream targetJarOutStream = new JarOutputStream(targetOutStream/*, manifest*/)) {
-              JarEntry sourceJarEntry;
-              // traverse source JAR entries and process each one 
-              while ((sourceJarEntry = sourceJarInStream.getNextJarEntry()) != null) {
-                String sourceEntryName = sourceJarEntry.getName();
-                // JAR manifest file needs special handling
-                if (JarFile.MANIFEST_NAME.equalsIgnoreCase(sourceEntryName)) {
-                  convertManifest(sourceJarInStream, targetJarOutStream);
-                  continue;
-                }
-                // nothing but classes are interesting for us here
-                var isPathAcceptable = sourceEntryName.startsWith(BOOT_INF_DIR + "classes/")
-                                    || sourceEntryName.startsWith(WEB_INF_DIR + "classes/");
-                if (!isPathAcceptable) {
-                  continue;
-                }
-                log.log(TRACE, "Processing archive entry: {0}", sourceEntryName);
-                Path sourceEntryPath = Paths.get(sourceEntryName);
-                if (sourceEntryPath.getNameCount() <= 2) {
-                  continue;   // to omit preceding 'BOOT-INF/classes/' and similar directories in the target JAR 
-                }
-                // turn 'BOOT-INF\classes\org\something\SomeClass.class' into 'org/something/SomeClass.class' 
-                String targetEntryPath = sourceEntryPath.subpath(2, sourceEntryPath.getNameCount())
-                                                        .toString()
-                                                        .replace('\\', '/');
-                if (sourceJarEntry.isDirectory()) {
-                  String targetDirectoryName = targetEntryPath + "/";
-                  JarEntry targetJarEntry = new JarEntry(targetDirectoryName);
-                  targetJarOutStream.putNextEntry(targetJarEntry);
-                } else {
-                  JarEntry targetJarEntry = new JarEntry(targetEntryPath);
-                  targetJarOutStream.putNextEntry(targetJarEntry);
-                  sourceJarInStream.transferTo(targetJarOutStream);
-                  targetJarOutStream.closeEntry();
-                }
-              }
-            }
-          }
+      Path targetJarPath = slimJarDir.resolve(FatJarSplitter.composeSlimJarName(fatJarPath));
+      try (FatJarSplitter splitter = new FatJarSplitter(fatJarPath)) {
+        splitter.split(null, targetJarPath, store);      // nested JARs are left in place
+        if (benchmarkIterations > 0) {
+          benchmark(splitter, targetJarPath);
         }
       }
-      log.log(INFO, "Converted fat jar ''{0}'' into slim one ''{1}''", fatJarPath, targetJarPath);
-      
+
     } catch (IOException e) {
       throw new RuntimeException(e);
     }
   }
 
   /**
-   * Reads the manifest from given JAR input stream, clears it from unnecessary attributes and stores into target JAR
-   * output stream.
-   * @implNote The method assumes that given {@code sourceJarInStream} is already positioned on manifest entry.
-   * @param sourceJarInStream input stream of JAR to read from
-   * @param targetJarOutStream output stream of JAR to write to
-   * @throws IOException in case of any input/output failures 
+   * Measures the time of reading all the classes from the slim JAR and from its counterpart (either compressed or not)
+   * the way {@link java.net.URLClassLoader} does, i.e. through {@link JarFile}. The JAR is reopened upon every
+   * iteration so that no inflated data can be reused. Note that the files are likely to be in the OS page cache, so
+   * the difference mostly shows the CPU time spent on inflation.
    */
-  private void convertManifest(JarInputStream sourceJarInStream, JarOutputStream targetJarOutStream) throws IOException {
-    Manifest manifest = new Manifest(sourceJarInStream);
-    List<String> attributesToRemove = new ArrayList<>(Constants.BASE_ATTRIBUTES_NAMES);
-    Attributes mainAttributes = manifest.getMainAttributes();
-    log.log(DEBUG, "Loaded manifest with {0} attributes.", mainAttributes.size());
-    // filter out all SpringBoot-related attributes as they are not needed in slim JAR 
-    mainAttributes.keySet()
-                  .stream()
-                  .map(Object::toString)
-                  .filter(name -> name.startsWith("Spring-Boot-"))
-                  .forEach(attributesToRemove::add);
-    attributesToRemove.stream()
-                      .map(Attributes.Name::new)
-                      .forEach(mainAttributes::remove);
-    mainAttributes.putValue("Created-By", Constants.MY_PRETTY_NAME);
-    ZipEntry manifestEntry = new ZipEntry(JarFile.MANIFEST_NAME);
-    targetJarOutStream.putNextEntry(manifestEntry);
-    manifest.write(targetJarOutStream);
-    targetJarOutStream.closeEntry();
-    log.log(INFO, "Found, cleaned and wrote manifest with {0} attributes.", mainAttributes.size());
+  private void benchmark(FatJarSplitter splitter, Path slimJarPath) throws IOException {
+    Path counterpartPath = Files.createTempFile(slimJarPath.getParent(), "benchmark", ".jar");
+    try {
+      splitter.split(null, counterpartPath, !store);
+      Path storedJarPath = store ? slimJarPath : counterpartPath;
+      Path deflatedJarPath = store ? counterpartPath : slimJarPath;
+      readAllClasses(storedJarPath);      // warm up both the JVM and the page cache
+      readAllClasses(deflatedJarPath);
+      long storedNanos = 0, deflatedNanos = 0;
+      int classesCount = 0;
+      for (int i = 0; i < benchmarkIterations; i++) {
+        long start = System.nanoTime();
+        classesCount = readAllClasses(deflatedJarPath);
+        long middle = System.nanoTime();
+        readAllClasses(storedJarPath);
+        storedNanos += System.nanoTime() - middle;
+        deflatedNanos += middle - start;
+      }
+      log.log(INFO, "Reading {0} classes took {1} ms from compressed JAR ({2} bytes) and {3} ms from uncompressed " +
+              "one ({4} bytes) on average of {5} iterations.", classesCount,
+              String.format("%.2f", deflatedNanos / 1e6 / benchmarkIterations), Files.size(deflatedJarPath),
+              String.format("%.2f", storedNanos / 1e6 / benchmarkIterations), Files.size(storedJarPath),
+              benchmarkIterations);
+    } finally {
+      Files.deleteIfExists(counterpartPath);
+    }
+  }
+
+  private static int readAllClasses(Path jarPath) throws IOException {
+    int classesCount = 0;
+    try (JarFile jarFile = new JarFile(jarPath.toFile())) {
+      for (JarEntry entry : Collections.list(jarFile.entries())) {
+        if (entry.getName().endsWith(".class")) {
+          try (InputStream in = jarFile.getInputStream(entry)) {
+            in.readAllBytes();
+          }
+          classesCount++;
+        }
+      }
+    }
+    return classesCount;
   }
 
   @SuppressWarnings("WeakerAccess")   // can be called from parent task (JCudos)
@@ -0,0 +1,71 @@
+package tech.toparvion.util.jcudos.subcommand;
+
+import tech.toparvion.util.jcudos.infra.JCudosVersionProvider;
+import tech.toparvion.util.jcudos.util.BinaryClassList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.System.Logger.Level.INFO;
+import static picocli.CommandLine.Command;
+import static picocli.CommandLine.Parameters;
+
+/**
+ * @author Toparvion
+ */
+@Command(name = "convert-list",
+        mixinStandardHelpOptions = true,
+        versionProvider = JCudosVersionProvider.class,
+        description = "Converts given class list from plain text format into binary one or vice versa.%n" +
+                "The direction is detected by the format of the source file.")
+public class ConvertList implements Runnable {
+  private static final System.Logger log = System.getLogger(ConvertList.class.getSimpleName());
+
+  @Parameters(index = "0", paramLabel = "SOURCE", description = "Path to class list to convert")
+  private Path sourcePath;
+
+  @Parameters(index = "1", paramLabel = "TARGET", description = "Path to resulting class list")
+  private Path targetPath;
+
+  @Override
+  public void run() {
+    try {
+      long startTime = System.currentTimeMillis();
+      int count;
+      if (BinaryClassList.isBinary(sourcePath)) {
+        BinaryClassList classList = BinaryClassList.open(sourcePath);
+        Files.write(targetPath, classList);
+        count = classList.size();
+
+      } else {
+        count = BinaryClassList.write(readPlainList(sourcePath), targetPath);
+      }
+      log.log(INFO, "Converted {0} class names from ''{1}'' ({2} bytes) to ''{3}'' ({4} bytes) in {5} ms.", count,
+              sourcePath, Files.size(sourcePath), targetPath, Files.size(targetPath),
+              (System.currentTimeMillis() - startTime));
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Reads plain class list omitting empty and comment lines as they make no sense in sorted binary list.
+   */
+  private static List<String> readPlainList(Path listPath) throws IOException {
+    List<String> names = new ArrayList<>(10_000);
+    try (BufferedReader reader = Files.newBufferedReader(listPath)) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (!line.isBlank() && !line.startsWith("#")) {
+          names.add(line);
+        }
+      }
+    }
+    return names;
+  }
+}
@@ -1,16 +1,38 @@
 package tech.toparvion.util.jcudos.subcommand;
 
+import tech.toparvion.util.jcudos.Constants.EstimationFormat;
+import tech.toparvion.util.jcudos.model.estimate.*;
+import tech.toparvion.util.jcudos.model.estimate.MissAnalysis.MissStats;
+import tech.toparvion.util.jcudos.model.exception.JCudosException;
+import tech.toparvion.util.jcudos.util.LogTail;
+
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.lang.management.ManagementFactory;
 import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
+import static java.lang.System.Logger.Level.ERROR;
 import static java.lang.System.Logger.Level.INFO;
-import static java.util.stream.Collectors.*;
+import static java.lang.System.Logger.Level.WARNING;
+import static java.util.stream.Collectors.toList;
 import static picocli.CommandLine.*;
 import static picocli.CommandLine.Help.Visibility.ALWAYS;
+import static tech.toparvion.util.jcudos.util.PathUtils.absolutify;
 
 /**
+ * Every log is read as a stream of lines (so that its size doesn't matter) in a thread of its own; the results are
+ * reported in the order of the logs once all of them are read.
+ * <p>Given the shared class list (and optionally the shared classpath), the command also finds out why the classes
+ * were not loaded from the archive and ranks the misses per source and per package (see {@link MissAnalysis}).</p>
+ * <p>In follow mode, the logs are polled periodically in a single thread and only the bytes appended since the previous
+ * poll are read (see {@link LogTail}), so the running counts of a live application can be watched with negligible
+ * overhead.</p>
  * @author Toparvion
  */
 @Command(name = "estimate",
@@ -19,27 +41,48 @@ import static picocli.CommandLine.Help.Visibility.ALWAYS;
 public class Estimate implements Runnable {
   private static final System.Logger log = System.getLogger(Estimate.class.getSimpleName());
 
-  private enum SourceType {
-    SHARED,
-    FILE,
-    JAR,
-    JRT,
-    GENERATED,
-    OTHER
-  } 
-  private static Map<String, SourceType> SOURCE_TYPE_MARKERS = Map.of(
-          "source: shared", SourceType.SHARED, 
-          "source: file:", SourceType.FILE,
-          "source: jar:", SourceType.JAR,
-          "source: jrt:", SourceType.JRT,
-          "source: __", SourceType.GENERATED
-  );
+  private static final String SOURCE_MARKER = " source: ";
+
   @Option(names = {"--root", "-r"}, paramLabel = "<workDir>", showDefaultValue = ALWAYS)
   private Path root = Paths.get(System.getProperty("user.dir"));
 
   @Parameters(paramLabel = "GLOB", description = "Glob expression describing paths to class load logs")
   private String classLoadLogGlob;  
 
+  @Option(names = {"--threads", "-t"}, description = "Number of threads to read log files with.",
+          showDefaultValue = ALWAYS)
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  @Option(names = {"--shared-list", "-l"}, paramLabel = "<classList>",
+          description = "Shared class list (either text or binary) to analyze the misses of the archive against.")
+  private Path sharedListPath;
+
+  @Option(names = {"--shared-classpath", "-c"}, paramLabel = "<classpath>",
+          description = "Shared classpath, i.e. either the arg-file it's specified in or the directory of its JARs. " +
+                  "Lets the misses caused by private JARs be told apart. Makes sense along with --shared-list only.")
+  private Path sharedClasspathPath;
+
+  @Option(names = {"--top"}, description = "Number of sources and packages to show in the rankings of misses.",
+          showDefaultValue = ALWAYS)
+  private int top = 20;
+
+  @Option(names = {"--format", "-f"}, description = "Machine-readable format to write the per-log counts and shared " +
+          "ratios in: ${COMPLETION-CANDIDATES}. PROMETHEUS format suits node exporter's textfile collector.")
+  private EstimationFormat format;
+
+  @Option(names = {"--output", "-o"}, paramLabel = "<outFile>", description = "File to write the machine-readable " +
+          "estimation into. Defaults to 'estimate.<json|csv|prom>' in the root directory. Implies --format JSON " +
+          "if the latter is not specified.")
+  private Path outPath;
+
+  @Option(names = {"--follow", "-F"}, description = "Keep on reading the logs as they grow (and get rotated) and " +
+          "report the running counts periodically until interrupted. New logs matching GLOB are picked up as well.")
+  private boolean follow = false;
+
+  @Option(names = {"--interval", "-i"}, paramLabel = "<seconds>", description = "Period of polling the logs in " +
+          "follow mode.", showDefaultValue = ALWAYS)
+  private int interval = 5;
+
   @Override
   public void run() {
     try {
@@ -47,11 +90,29 @@ public class Estimate implements Runnable {
       log.log(INFO, "Estimating AppCDS efficiency by Glob pattern ''{0}'' in directory ''{1}''...",
           classLoadLogGlob, root);
       PathMatcher pathMatcher = FileSystems.getDefault().getPathMatcher("glob:" + classLoadLogGlob);
-      IntSummaryStatistics stats = Files.walk(root)
-              .filter(pathMatcher::matches)
-              .mapToInt(this::estimate)
-              .filter(percent -> percent != 0)
-              .summaryStatistics();
+      if (follow) {
+        follow(pathMatcher);
+        return;
+      }
+      List<Path> logPaths = findLogs(pathMatcher);
+      MissAnalysis missAnalysis = createMissAnalysis();
+      List<FileEstimation> estimations = estimateAll(logPaths, missAnalysis != null);
+      IntSummaryStatistics stats = new IntSummaryStatistics();
+      for (FileEstimation estimation : estimations) {
+        int sharedPart = report(estimation);
+        if (sharedPart != 0) {
+          stats.accept(sharedPart);
+        }
+        if (missAnalysis != null && estimation.getFailure() == null) {
+          missAnalysis.add(estimation.getMisses(), estimation.getCount(SourceType.SHARED) > 0);
+        }
+      }
+      if (missAnalysis != null) {
+        report(missAnalysis);
+      }
+      if (format != null || outPath != null) {
+        write(estimations);
+      }
       log.log(INFO,"Stats: min={0}%, max={1}%, cnt={2}", stats.getMin(), stats.getMax(), stats.getCount());
       log.log(INFO,"Estimating took {0} ms.", ManagementFactory.getRuntimeMXBean().getUptime());
       log.log(INFO,"Average shared part: {0}%", stats.getAverage());
@@ -61,39 +122,238 @@ public class Estimate implements Runnable {
     }
   }
 
-  private int estimate(Path classLoadLogPath) {
+  private List<Path> findLogs(PathMatcher pathMatcher) throws IOException {
+    try (Stream<Path> paths = Files.walk(root)) {
+      return paths.filter(pathMatcher::matches).collect(toList());
+    }
+  }
+
+  private void write(List<FileEstimation> estimations) throws IOException {
+    EstimationFormat outFormat = (format == null) ? EstimationFormat.JSON : format;
+    Path outFilePath = composeOutFilePath(outFormat);
+    new EstimationWriter(outFormat, outFilePath).write(estimations);
+    log.log(INFO, "Estimation of {0} logs written in {1} format to ''{2}''", estimations.size(), outFormat,
+            outFilePath);
+  }
+
+  private Path composeOutFilePath(EstimationFormat outFormat) {
+    return (outPath == null)
+            ? root.resolve("estimate." + EstimationWriter.getExtension(outFormat))
+            : absolutify(outPath, root);
+  }
+
+  //<editor-fold desc="Follow mode">
+  /**
+   * Polls the logs until the thread is interrupted, reporting the logs that have grown since the previous poll.
+   * Both the logs and the machine-readable output (if any) reflect the running counts, i.e. the ones accumulated
+   * since the start of following, including the content of the logs written before it.
+   */
+  private void follow(PathMatcher pathMatcher) throws IOException {
+    if (interval < 1) {
+      log.log(ERROR, "--interval must be positive. ''{0}'' is incorrect.", interval);
+      throw new JCudosException();
+    }
+    if (sharedListPath != null) {
+      log.log(WARNING, "Analysis of the misses is not supported in follow mode; --shared-list is ignored.");
+    }
+    EstimationWriter writer = null;
+    if (format != null || outPath != null) {
+      EstimationFormat outFormat = (format == null) ? EstimationFormat.JSON : format;
+      Path outFilePath = composeOutFilePath(outFormat);
+      writer = new EstimationWriter(outFormat, outFilePath);
+      log.log(INFO, "Running estimation will be written in {0} format to ''{1}''", outFormat, outFilePath);
+    }
+    log.log(INFO, "Following the logs every {0} s. Interrupt the process to stop.", interval);
+    Map<Path, LogTail> tails = new LinkedHashMap<>();
+    Map<Path, FileEstimation> estimations = new LinkedHashMap<>();
+    Set<Object> readKeys = new HashSet<>();
+    Set<Path> skippedPaths = new HashSet<>();
     try {
-      log.log(INFO, "File: {0}", classLoadLogPath);
-      TreeMap<SourceType, Integer> localStats = Files.readAllLines(classLoadLogPath)
-              .stream()
-              .filter(this::relevantLinesOnly)
-              .collect(groupingBy(this::detectSourceType,
-                      () -> new TreeMap<>(Comparator.comparingInt(SourceType::ordinal)),
-                      collectingAndThen(toList(), List::size)));
-      int sharedCount = localStats.getOrDefault(SourceType.SHARED, 0);
-      int totalCount = localStats.values().stream().mapToInt(Integer::intValue).sum();
-      int sharedPart = Math.round(((float)sharedCount / totalCount) * 100f);
-      var sb = new StringBuilder("Class sources distribution:");
-      localStats.forEach((type, count) -> sb.append('\n').append(type).append(" -> ").append(count));
-      log.log(INFO, "{0}\nShared part: {1}%", sb.toString(), sharedPart);
-      return sharedPart;
+      while (!Thread.currentThread().isInterrupted()) {
+        for (Path logPath : findLogs(pathMatcher)) {
+          if (tails.containsKey(logPath)) {
+            continue;
+          }
+          // the glob may match the rotated copies of the logs being followed; their content is read already
+          Object fileKey;
+          try {
+            fileKey = LogTail.readFileKey(logPath);
+          } catch (NoSuchFileException e) {
+            continue;
+          }
+          if (fileKey != null && readKeys.contains(fileKey)) {
+            if (skippedPaths.add(logPath)) {
+              log.log(INFO, "Skipped log ''{0}'' as its content is already read from another log", logPath);
+            }
+            continue;
+          }
+          tails.put(logPath, new LogTail(logPath, readKeys));
+          estimations.put(logPath, new FileEstimation(logPath, false));
+          log.log(INFO, "Started following log ''{0}''", logPath);
+        }
+        boolean updated = false;
+        for (LogTail tail : tails.values()) {
+          FileEstimation estimation = estimations.get(tail.getPath());
+          int previousCount = estimation.getTotalCount();
+          try {
+            if (tail.poll(line -> estimateLine(line, estimation)) == 0) {
+              continue;
+            }
+          } catch (IOException e) {
+            log.log(WARNING, "Failed to read log ''{0}'' ({1}). Will retry on the next poll.", tail.getPath(), e);
+            continue;
+          }
+          updated = true;
+          log.log(INFO, "File: {0} -> shared part {1}% of {2} classes (+{3})", tail.getPath(),
+                  Math.round(estimation.getSharedRatio() * 100), estimation.getTotalCount(),
+                  estimation.getTotalCount() - previousCount);
+        }
+        if (updated && writer != null) {
+          writer.write(new ArrayList<>(estimations.values()));
+        }
+        Thread.sleep(interval * 1000L);
+      }
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+
+    } finally {
+      for (LogTail tail : tails.values()) {
+        tail.close();
+      }
+    }
+  }
+  //</editor-fold>
+
+  private MissAnalysis createMissAnalysis() throws IOException {
+    if (sharedListPath == null) {
+      return null;
+    }
+    Path listPath = absolutify(sharedListPath, root);
+    Set<String> listedClasses = MissAnalysis.readClassList(listPath);
+    log.log(INFO, "Read {0} class names from shared class list ''{1}''", listedClasses.size(), listPath);
+    Set<String> sharedJarNames = null;
+    if (sharedClasspathPath != null) {
+      Path classpathPath = absolutify(sharedClasspathPath, root);
+      sharedJarNames = MissAnalysis.readClasspath(classpathPath);
+      log.log(INFO, "Read {0} entries of shared classpath from ''{1}''", sharedJarNames.size(), classpathPath);
+    }
+    return new MissAnalysis(listedClasses, sharedJarNames);
+  }
+
+  /**
+   * Reads all given logs in parallel.
+   * @param collectMisses whether the classes not loaded from the archive should be collected for the analysis
+   * @return the estimations in the order of given paths
+   */
+  private List<FileEstimation> estimateAll(List<Path> logPaths, boolean collectMisses) {
+    ExecutorService logReaders = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+      var thread = new Thread(runnable, "log-reader");
+      thread.setDaemon(true);       // not to prevent JVM from exiting if estimation fails half way
+      return thread;
+    });
+    try {
+      List<Future<FileEstimation>> futures = new ArrayList<>(logPaths.size());
+      for (Path logPath : logPaths) {
+        futures.add(logReaders.submit(() -> estimate(logPath, collectMisses)));
+      }
+      List<FileEstimation> estimations = new ArrayList<>(futures.size());
+      for (Future<FileEstimation> future : futures) {
+        estimations.add(future.get());
+      }
+      return estimations;
+
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Failed to estimate log files", e.getCause());
+
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while estimating log files", e);
+
+    } finally {
+      logReaders.shutdownNow();
+    }
+  }
+
+  private FileEstimation estimate(Path classLoadLogPath, boolean collectMisses) {
+    var estimation = new FileEstimation(classLoadLogPath, collectMisses);
+    try (BufferedReader reader = Files.newBufferedReader(classLoadLogPath)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        estimateLine(line, estimation);
+      }
 
     } catch (Exception e) {
-      e.printStackTrace();
+      estimation.setFailure(e);
+    }
+    return estimation;
+  }
+
+  /**
+   * Accounts given line in given estimation if the line is a class loading record.
+   */
+  private static void estimateLine(String line, FileEstimation estimation) {
+    int sourceIndex = line.indexOf(SOURCE_MARKER);
+    if (sourceIndex < 0) {
+      return;
+    }
+    int sourceStart = sourceIndex + SOURCE_MARKER.length();
+    SourceType sourceType = SourceType.detect(line, sourceStart);
+    estimation.count(sourceType);
+    if (estimation.getMisses() != null && sourceType != SourceType.SHARED) {
+      // e.g. '[0.045s][info][class,load] org.example.Foo source: file:/app/lib/foo.jar'
+      String className = line.substring(line.lastIndexOf(' ', sourceIndex - 1) + 1, sourceIndex);
+      estimation.getMisses().add(className, line.substring(sourceStart).trim());
+    }
+  }
+
+  /**
+   * Logs given estimation.
+   * @return the shared part of loaded classes (in percents) or 0 if the log could not be read
+   */
+  private int report(FileEstimation estimation) {
+    log.log(INFO, "File: {0}", estimation.getPath());
+    if (estimation.getFailure() != null) {
+      estimation.getFailure().printStackTrace();
       return 0;
     }
+    int sharedCount = estimation.getCount(SourceType.SHARED);
+    int totalCount = estimation.getTotalCount();
+    int sharedPart = Math.round(((float)sharedCount / totalCount) * 100f);
+    var sb = new StringBuilder("Class sources distribution:");
+    for (SourceType type : SourceType.values()) {
+      if (estimation.getCount(type) > 0) {
+        sb.append('\n').append(type).append(" -> ").append(estimation.getCount(type));
+      }
+    }
+    log.log(INFO, "{0}\nShared part: {1}%", sb.toString(), sharedPart);
+    return sharedPart;
   }
 
-  private boolean relevantLinesOnly(String line) {
-    return line.contains(" source: ");
+  private void report(MissAnalysis analysis) {
+    int totalCount = analysis.getTotalCount();
+    var sb = new StringBuilder("Misses of the archive: ").append(totalCount)
+            .append(" class loads, ").append(analysis.getTotalBytes()).append(" bytes of class files");
+    for (MissReason reason : MissReason.values()) {
+      int count = analysis.getCount(reason);
+      if (count > 0) {
+        sb.append('\n').append(reason).append(" -> ").append(count)
+          .append(" (").append(Math.round(((float) count / totalCount) * 100f)).append("%)");
+      }
+    }
+    log.log(INFO, sb.toString());
+    log.log(INFO, composeRanking("sources by count", analysis.getSourceStats(MissStats.BY_COUNT)));
+    log.log(INFO, composeRanking("sources by bytes", analysis.getSourceStats(MissStats.BY_BYTES)));
+    log.log(INFO, composeRanking("packages by count", analysis.getPackageStats(MissStats.BY_COUNT)));
+    log.log(INFO, composeRanking("packages by bytes", analysis.getPackageStats(MissStats.BY_BYTES)));
   }
 
-  private SourceType detectSourceType(String classLoadRecord) {
-    return SOURCE_TYPE_MARKERS.entrySet()
-            .stream()
-            .filter(entry -> classLoadRecord.contains(entry.getKey()))
-            .findAny()
-            .map(Map.Entry::getValue)
-            .orElse(SourceType.OTHER);
-  } 
+  private String composeRanking(String title, List<MissStats> ranking) {
+    var sb = new StringBuilder("Top ").append(Math.min(top, ranking.size())).append(' ').append(title)
+            .append(" (of ").append(ranking.size()).append("):");
+    for (MissStats stats : ranking.subList(0, Math.min(top, ranking.size()))) {
+      sb.append(String.format("%n%8d %10d  %s [%s]", stats.getCount(), stats.getBytes(), stats.getKey(),
+              stats.describeReasons()));
+    }
+    return sb.toString();
+  }
 }
@@ -2,17 +2,13 @@ package tech.toparvion.util.jcudos.subcommand;
 
 import picocli.CommandLine.Option;
 import picocli.CommandLine.Parameters;
+import tech.toparvion.util.jcudos.util.FatJarSplitter;
 import tech.toparvion.util.jcudos.util.PathUtils;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.file.*;
 import java.util.*;
 import java.util.concurrent.Callable;
-import java.util.jar.JarFile;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
 
 import static java.lang.System.Logger.Level.*;
 import static java.util.stream.Collectors.toList;
@@ -109,9 +105,10 @@ public class Evert implements Callable<List<String>> {
 
   /**
    * 1. Checks if given JAR is a 'fat' one by searching for Start-Class attribute in its manifest <br/>
-   * 2. Stores start class name in a text file <br/>
+   * 2. Stores start class name (and classpath index, if any) in text files <br/>
    * 3. Traverses fat JAR's content and extract all nested JARs <br/> 
-   * 4. Converts fat JAR into slim one by means of {@link Convert} command
+   * 4. Converts fat JAR into slim one (the same way as {@link Convert} command does) <br/>
+   * Steps 3 and 4 are done in a single pass over the fat JAR by means of {@link FatJarSplitter}.
    * 
    * @param fatJarPath path to Spring Boot fat JAR
    * @return string path to lib directory containing all the extracted (formerly nested) JAR files; <br/> 
@@ -119,13 +116,14 @@ public class Evert implements Callable<List<String>> {
    */
   // @Nullable
   private String evert(Path fatJarPath) {
-    try {
+    try (FatJarSplitter splitter = new FatJarSplitter(fatJarPath)) {
       // B.1 - check if given JAR is a 'fat' one by searching for Start-Class attribute in its manifest
-      String startClass = extractStartClass(fatJarPath);
+      String startClass = splitter.getStartClass();
       if (startClass == null) {
         log.log(WARNING, "File ''{0}'' is not a Spring Boot 'fat' JAR. Skipped.", fatJarPath);
         return null;
       }
+      log.log(INFO, "Found Start-Class ''{0}'' in file ''{1}''.", startClass, fatJarPath);
       String appName = startClass.substring(startClass.lastIndexOf('.')+1).toLowerCase();
       // prepare local output dir (removing its content firstly if needed)
       if (outDir == null) {
@@ -136,18 +134,19 @@ public class Evert implements Callable<List<String>> {
       // B.2 - store start class name in a text file
       Path startClassFile = localOutDir.resolve(START_CLASS_FILE_NAME);
       Files.writeString(startClassFile, startClass);
+
+      // B.2a - store the classpath order defined by Spring Boot (if any) to keep it when reordering the classpath
+      List<String> classpathIndex = splitter.getClasspathIndex();
+      if (!classpathIndex.isEmpty()) {
+        Files.write(localOutDir.resolve(CLASSPATH_INDEX_FILE_NAME), classpathIndex);
+        log.log(DEBUG, "Stored classpath index of {0} entries.", classpathIndex.size());
+      }
       
       // prepare 'lib' subdirectory to store extracted JARs and converted (slim) JAR
       Path localLibDir = Files.createDirectories(localOutDir.resolve(LIB_DIR_NAME));
 
-      // B.3 - traverse fat JAR's content and extract all nested JARs
-      extractNestedJars(fatJarPath, localLibDir);
-
-      // B.4 - invoke conversion command to create 'slim' JAR from 'fat' one 
-      Convert convertCommand = new Convert();
-      convertCommand.setFatJarPath(fatJarPath);
-      convertCommand.setSlimJarDir(localLibDir);
-      convertCommand.run();
+      // B.3 + B.4 - traverse fat JAR's content, extract all nested JARs and create 'slim' JAR at the same time
+      splitter.split(localLibDir, localLibDir.resolve(FatJarSplitter.composeSlimJarName(fatJarPath)));
       log.log(INFO, "===================================================================");
       return localLibDir.toAbsolutePath().toString();
     
@@ -158,46 +157,6 @@ public class Evert implements Callable<List<String>> {
     }
   }
 
-  private String extractStartClass(Path fatJarPath) throws IOException {
-    try (JarFile jarFile = new JarFile(fatJarPath.toString(), false)) {
-      String startClass = jarFile.getManifest().getMainAttributes().getValue(START_CLASS_ATTRIBUTE_NAME);
-      if (startClass != null) {
-        log.log(INFO, "Found Start-Class ''{0}'' in file ''{1}''.", startClass, fatJarPath);
-        return startClass;
-      }
-    }
-    return null;
-  }
-
-  private void extractNestedJars(Path fatJarPath, Path localLibDir) throws IOException {
-    try (InputStream fis = Files.newInputStream(fatJarPath)) {
-      int filesCount;
-      try (ZipInputStream zis = new ZipInputStream(fis)) {
-        filesCount = 0;
-        ZipEntry nextEntry;
-        while ((nextEntry = zis.getNextEntry()) != null) {
-          String archivedEntryPath = nextEntry.getName();
-          var isPathAcceptable = (archivedEntryPath.startsWith(BOOT_INF_DIR)
-                  || archivedEntryPath.startsWith(WEB_INF_DIR))
-                  && archivedEntryPath.toLowerCase().endsWith(".jar");
-          if (!isPathAcceptable) {
-            continue;
-          }
-          // System.out.printf("Processing archive entry: %s\n", archivedEntryPath);
-          Path fileName = Paths.get(archivedEntryPath).getFileName();
-          Path extractedEntryPath = localLibDir.resolve(fileName);
-          try (OutputStream nextFileOutStream = Files.newOutputStream(extractedEntryPath)) {
-            zis.transferTo(nextFileOutStream);
-          }
-          // System.out.printf("File '%s' extracted to '%s'\n", archivedEntryPath, extractedEntryPath);
-          filesCount++;
-        }
-        zis.closeEntry();
-      }
-      log.log(INFO, "Extracted {0} files from fat JAR ''{1}'' to ''{2}''", filesCount, fatJarPath, localLibDir);
-    } 
-  }
-
   private void createArgFiles(String argFileName, List<String> allLibDirs, Path jsaPath) throws IOException {
     for (String libDir : allLibDirs) {
       Path libDirPath = Paths.get(libDir);
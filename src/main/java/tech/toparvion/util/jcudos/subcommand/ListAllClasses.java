@@ -1,17 +1,20 @@
 package tech.toparvion.util.jcudos.subcommand;
 
+import picocli.CommandLine.Option;
+
 import java.io.IOException;
-import java.io.InputStream;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.ZipFile;
 
 import static java.lang.String.format;
 import static picocli.CommandLine.Command;
@@ -19,6 +22,9 @@ import static picocli.CommandLine.Help.Visibility.ALWAYS;
 import static picocli.CommandLine.Parameters;
 
 /**
+ * Lists the classes that can be loaded from given JARs. Multi-release JARs are read as of the target Java release,
+ * i.e. their versioned entries ({@code META-INF/versions/<N>/...}) are listed by their class names if {@code N} doesn't
+ * exceed the release and are omitted otherwise.
  * @author Toparvion
  */
 @Command(name = "list-all-classes",
@@ -37,6 +43,10 @@ public class ListAllClasses implements Runnable {
   @Parameters(index = "1", defaultValue = DEFAULT_OUTPUT, showDefaultValue = ALWAYS, paramLabel = "TARGET",
           description = "Destination for list output, e.g. /tmp/classes.list")
   private String targetPath;
+
+  @Option(names = {"--release", "-r"}, paramLabel = "<N>", description = "Java release to read multi-release JARs " +
+          "as of. Defaults to the release of the running JVM.")
+  private int release = Runtime.version().feature();
   
   @Override
   public void run()  {
@@ -71,12 +81,14 @@ public class ListAllClasses implements Runnable {
     
     // iterate through detected files and extract class names from every one of them 
     Set<String> classes = new TreeSet<>();    // a Set<> collection is used to avoid duplicates in result list
+    Runtime.Version version = Runtime.Version.parse(String.valueOf(release));
     for (Path jarPath : pathsToInspect) {
       var filesCount = 0;
-      try (InputStream fis = Files.newInputStream(jarPath)) {
-        ZipInputStream zis = new ZipInputStream(fis);
-        ZipEntry nextEntry;
-        while ((nextEntry = zis.getNextEntry()) != null) {
+      var versionedCount = 0;
+      // the versioned stream gives entries' effective versions (under their base names) for given release only 
+      try (JarFile jarFile = new JarFile(jarPath.toFile(), false, ZipFile.OPEN_READ, version)) {
+        for (Iterator<JarEntry> entries = jarFile.versionedStream().iterator(); entries.hasNext(); ) {
+          JarEntry nextEntry = entries.next();
           String archivedEntryPath = nextEntry.getName();
           int pathLength = archivedEntryPath.length();
           int extensionIdx = archivedEntryPath.toLowerCase().indexOf(CLASS_EXT);
@@ -88,10 +100,17 @@ public class ListAllClasses implements Runnable {
           String extLessPath = archivedEntryPath.substring(0, extensionIdx);
           classes.add(extLessPath);
           filesCount++;
+          if (!nextEntry.getRealName().equals(archivedEntryPath)) {
+            versionedCount++;
+          }
         }
-        zis.closeEntry();
       }
-      System.out.printf("Found %d classes in JAR %s\n", filesCount, jarPath);
+      if (versionedCount > 0) {
+        System.out.printf("Found %d classes (%d of them versioned for release %d) in JAR %s\n", filesCount, 
+                versionedCount, release, jarPath);
+      } else {
+        System.out.printf("Found %d classes in JAR %s\n", filesCount, jarPath);
+      }
     }
     System.out.printf("Extracted %d class names from path %s\n", classes.size(), sourcePath);
     return classes;
@@ -0,0 +1,365 @@
+package tech.toparvion.util.jcudos.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static java.nio.channels.FileChannel.MapMode.READ_ONLY;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A compact binary representation of a class list. The names are stored sorted (by their UTF-8 bytes), deduplicated
+ * and front-coded, i.e. every name keeps only the suffix that differs from the preceding one. The names are grouped
+ * into blocks of {@value #BLOCK_SIZE}; the first name of each block is stored in full and the offsets of all blocks
+ * are kept in an index at the end of the file. This allows the file to be memory-mapped and used as is: an entry is
+ * decoded only when it is accessed and the membership is checked with binary search over the blocks.
+ * <p>File layout (all numbers are big-endian):</p>
+ * <pre>
+ *   int magic ('JCDL'), int version, int count, int blockSize, long indexOffset
+ *   data: for every name - varint sharedPrefixLength, varint suffixLength, byte[suffixLength] suffix
+ *   int[blocksCount] block offsets (relative to the data start) located at indexOffset
+ * </pre>
+ * The index is placed after the data so that the file can be written in a single pass by {@link Writer}.
+ * Being a {@link List}, the instance can be used directly as one of collated lists.
+ *
+ * @author Toparvion
+ */
+public final class BinaryClassList extends AbstractList<String> implements RandomAccess {
+  private static final int MAGIC = 0x4A43444C;    // 'JCDL'
+  private static final int VERSION = 1;
+  private static final int BLOCK_SIZE = 16;
+  private static final int HEADER_SIZE = 4 * Integer.BYTES + Long.BYTES;
+
+  private final ByteBuffer buffer;
+  private final int count;
+  private final int blockSize;
+  private final int indexStart;
+
+  private BinaryClassList(ByteBuffer buffer, Path path) throws IOException {
+    if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("File '" + path + "' is not a binary class list");
+    }
+    int version = buffer.getInt(4);
+    if (version != VERSION) {
+      throw new IOException("Unsupported version " + version + " of binary class list '" + path + "'");
+    }
+    this.buffer = buffer;
+    this.count = buffer.getInt(8);
+    this.blockSize = buffer.getInt(12);
+    this.indexStart = Math.toIntExact(buffer.getLong(16));
+  }
+
+  /**
+   * Maps given file into memory. No entries are decoded at this point.
+   * @param path path to binary class list
+   * @return list view backed by the mapped file
+   * @throws IOException in case the file cannot be read or is not a binary class list
+   */
+  public static BinaryClassList open(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, READ)) {
+      // the mapping stays valid after the channel is closed
+      return new BinaryClassList(channel.map(READ_ONLY, 0, channel.size()), path);
+    }
+  }
+
+  /**
+   * @return {@code true} if given file starts with binary class list signature
+   */
+  public static boolean isBinary(Path path) throws IOException {
+    if (!Files.isRegularFile(path) || Files.size(path) < HEADER_SIZE) {
+      return false;
+    }
+    try (var in = new DataInputStream(Files.newInputStream(path))) {
+      return in.readInt() == MAGIC;
+    }
+  }
+
+  /**
+   * Writes given names into specified file in binary format. The names get sorted and deduplicated on the way.
+   * @param names class names to write
+   * @param path target file path
+   * @return the number of written (unique) names
+   * @throws IOException in case of any IO error
+   */
+  public static int write(Collection<String> names, Path path) throws IOException {
+    String[] sorted = names.toArray(new String[0]);
+    Arrays.sort(sorted, BinaryClassList::compareUtf8);
+    try (var writer = new Writer(path)) {
+      for (String name : sorted) {
+        writer.add(name);
+      }
+      return writer.count();
+    }
+  }
+
+  /**
+   * Writes given names into specified file in binary format without loading them all into memory.
+   * @param sortedNames names sorted in {@linkplain #compareUtf8(String, String) UTF-8 order}
+   * @param path target file path
+   * @return the number of written (unique) names
+   * @throws IOException in case of any IO error
+   */
+  public static int writeSorted(Iterable<String> sortedNames, Path path) throws IOException {
+    try (var writer = new Writer(path)) {
+      for (String name : sortedNames) {
+        writer.add(name);
+      }
+      return writer.count();
+    }
+  }
+
+  /**
+   * Compares given strings in the same order as their UTF-8 representations, i.e. by code points.
+   */
+  public static int compareUtf8(String one, String another) {
+    int length = Math.min(one.length(), another.length());
+    for (int i = 0; i < length; i++) {
+      char oneChar = one.charAt(i), anotherChar = another.charAt(i);
+      if (oneChar != anotherChar) {
+        boolean oneSurrogate = Character.isSurrogate(oneChar), anotherSurrogate = Character.isSurrogate(anotherChar);
+        if (oneSurrogate != anotherSurrogate) {
+          return oneSurrogate ? 1 : -1;     // surrogate pairs encode code points above any other char
+        }
+        return Character.compare(oneChar, anotherChar);
+      }
+    }
+    return Integer.compare(one.length(), another.length());
+  }
+
+  @Override
+  public String get(int index) {
+    Objects.checkIndex(index, count);
+    int firstIndex = index - (index % blockSize);
+    var cursor = new Cursor(firstIndex);
+    for (int i = firstIndex; i < index; i++) {
+      cursor.advance();
+    }
+    return cursor.advance();
+  }
+
+  @Override
+  public int size() {
+    return count;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+  @Override
+  public int indexOf(Object o) {
+    if (!(o instanceof String) || count == 0) {
+      return -1;
+    }
+    byte[] key = ((String) o).getBytes(UTF_8);
+    // find the last block whose first name is not greater than the key
+    int low = 0, high = blocksCount(count, blockSize) - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (compareBlockHead(mid, key) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    // then scan the block sequentially
+    int firstIndex = low * blockSize;
+    int lastIndex = Math.min(firstIndex + blockSize, count);
+    var cursor = new Cursor(firstIndex);
+    for (int i = firstIndex; i < lastIndex; i++) {
+      cursor.advanceRaw();
+      int comparison = Arrays.compareUnsigned(cursor.name, 0, cursor.length, key, 0, key.length);
+      if (comparison == 0) {
+        return i;
+      }
+      if (comparison > 0) {
+        break;
+      }
+    }
+    return -1;
+  }
+
+  @Override
+  public int lastIndexOf(Object o) {
+    return indexOf(o);    // names are unique
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<>() {
+      private final Cursor cursor = new Cursor(0);
+      private int next = 0;
+
+      @Override
+      public boolean hasNext() {
+        return next < count;
+      }
+
+      @Override
+      public String next() {
+        if (next >= count) {
+          throw new NoSuchElementException();
+        }
+        next++;
+        return cursor.advance();
+      }
+    };
+  }
+
+  @Override
+  public Spliterator<String> spliterator() {
+    // sequential decoding is much cheaper than the random access used by default spliterator of RandomAccess lists
+    return Spliterators.spliterator(iterator(), count,
+            Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+  }
+
+  private int compareBlockHead(int block, byte[] key) {
+    int position = HEADER_SIZE + buffer.getInt(indexStart + block * Integer.BYTES);
+    ByteBuffer in = buffer.duplicate();
+    in.position(position);
+    readVarInt(in);                   // shared prefix length of a block head is always 0
+    int length = readVarInt(in);
+    int start = in.position();
+    for (int i = 0; i < Math.min(length, key.length); i++) {
+      int comparison = Byte.compareUnsigned(buffer.get(start + i), key[i]);
+      if (comparison != 0) {
+        return comparison;
+      }
+    }
+    return Integer.compare(length, key.length);
+  }
+
+  private static int blocksCount(int count, int blockSize) {
+    return (count + blockSize - 1) / blockSize;
+  }
+
+  private static int writeVarInt(OutputStream out, int value) throws IOException {
+    int size = 1;
+    while ((value & ~0x7f) != 0) {
+      out.write((value & 0x7f) | 0x80);
+      value >>>= 7;
+      size++;
+    }
+    out.write(value);
+    return size;
+  }
+
+  private static int readVarInt(ByteBuffer in) {
+    int value = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = in.get();
+      value |= (b & 0x7f) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Single-pass writer of binary class list. Accepts names in ascending {@linkplain #compareUtf8(String, String) UTF-8
+   * order} only and skips duplicates. Keeps nothing but the block index in memory (4 bytes per block of names).
+   */
+  public static final class Writer implements Closeable {
+    private final FileChannel channel;
+    private final DataOutputStream out;
+    private int[] blockOffsets = new int[64];
+    private byte[] previous = null;
+    private int count = 0;
+    private int dataSize = 0;
+
+    public Writer(Path path) throws IOException {
+      channel = FileChannel.open(path, CREATE, WRITE, TRUNCATE_EXISTING);
+      out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 0xffff));
+      out.write(new byte[HEADER_SIZE]);     // the header is written upon closing when all the numbers are known
+    }
+
+    public void add(String name) throws IOException {
+      byte[] current = name.getBytes(UTF_8);
+      int shared = 0;
+      if (previous != null) {
+        int comparison = Arrays.compareUnsigned(previous, current);
+        if (comparison == 0) {
+          return;
+        }
+        if (comparison > 0) {
+          throw new IllegalArgumentException("Name '" + name + "' violates ascending order of binary class list");
+        }
+      }
+      if (count % BLOCK_SIZE == 0) {
+        int block = count / BLOCK_SIZE;
+        if (block == blockOffsets.length) {
+          blockOffsets = Arrays.copyOf(blockOffsets, block * 2);
+        }
+        blockOffsets[block] = dataSize;     // the first name of a block is always stored in full
+      } else {
+        int mismatch = Arrays.mismatch(previous, current);
+        shared = (mismatch < 0) ? current.length : mismatch;
+      }
+      dataSize += writeVarInt(out, shared);
+      dataSize += writeVarInt(out, current.length - shared);
+      out.write(current, shared, current.length - shared);
+      dataSize += current.length - shared;
+      previous = current;
+      count++;
+    }
+
+    public int count() {
+      return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try (channel) {
+        for (int block = 0; block < blocksCount(count, BLOCK_SIZE); block++) {
+          out.writeInt(blockOffsets[block]);
+        }
+        out.flush();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(count)
+                .putInt(BLOCK_SIZE)
+                .putLong(HEADER_SIZE + (long) dataSize)
+                .flip();
+        channel.write(header, 0);
+      }
+    }
+  }
+
+  /**
+   * Sequential decoder of names starting from the head of some block.
+   */
+  private class Cursor {
+    private final ByteBuffer in;
+    private byte[] name = new byte[128];
+    private int length = 0;
+
+    Cursor(int firstIndex) {
+      in = buffer.duplicate();
+      if (firstIndex < count) {
+        in.position(HEADER_SIZE + buffer.getInt(indexStart + (firstIndex / blockSize) * Integer.BYTES));
+      }
+    }
+
+    void advanceRaw() {
+      int shared = readVarInt(in);
+      int suffix = readVarInt(in);
+      if (name.length < shared + suffix) {
+        name = Arrays.copyOf(name, Math.max(name.length * 2, shared + suffix));
+      }
+      in.get(name, shared, suffix);
+      length = shared + suffix;
+    }
+
+    String advance() {
+      advanceRaw();
+      return new String(name, 0, length, UTF_8);
+    }
+  }
+}
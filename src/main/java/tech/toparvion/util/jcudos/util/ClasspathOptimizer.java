@@ -0,0 +1,187 @@
+package tech.toparvion.util.jcudos.util;
+
+import tech.toparvion.util.jcudos.model.collate.entry.ClassListDirective;
+import tech.toparvion.util.jcudos.model.collate.entry.ClassRecordEntry;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.JarFile;
+
+import static java.lang.System.Logger.Level.*;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Orders classpath entries (JARs) so that the classes being loaded at startup are found as early as possible. The JVM
+ * looks for a class missing in the shared archive by probing the classpath entries one by one, hence the JARs serving
+ * the most of loaded classes should go first while the never used ones should go last.
+ * <p>The reordering must not change the JAR a class (or a resource) is loaded from. That's why the JARs containing the
+ * same classes or resources keep their relative order which is taken from Spring Boot's {@code classpath.idx} (if
+ * any); the slim JAR precedes all the libs as application's own classes do in the fat JAR. The JARs not mentioned in
+ * the index are considered to follow the mentioned ones in the order of their names.</p>
+ *
+ * @author Toparvion
+ */
+public class ClasspathOptimizer {
+  private static final System.Logger log = System.getLogger(ClasspathOptimizer.class.getSimpleName());
+
+  private static final String CLASS_SUFFIX = ".class";
+  private static final String VERSIONS_DIR = "META-INF/versions/";
+  private static final String SLIM_JAR_SUFFIX = ".slim.jar";
+
+  /** internal class name -> the earliest position of the class among all the class lists */
+  private final Map<String, Integer> loadRanks = new HashMap<>();
+
+  /**
+   * @param classLists class lists (or converted class loading traces) in their original (i.e. loading) order
+   */
+  public ClasspathOptimizer(Collection<? extends List<?>> classLists) {
+    for (List<?> classList : classLists) {
+      int rank = 0;
+      for (Object entry : classList) {
+        String className = extractClassName(entry);
+        if (className != null) {
+          loadRanks.merge(className, rank++, Math::min);
+        }
+      }
+    }
+  }
+
+  /**
+   * @param jarPaths classpath entries to order
+   * @param indexedJarNames file names of the JARs in the order of Spring Boot's {@code classpath.idx}; may be empty
+   * @return the same paths in optimized order or in the original order if some of the JARs cannot be read
+   */
+  public List<Path> order(List<Path> jarPaths, List<String> indexedJarNames) {
+    if (loadRanks.isEmpty() || jarPaths.size() < 2) {
+      return jarPaths;
+    }
+    // firstly, establish the base order which the resulting one must agree with on the JARs sharing some classes
+    List<Path> baseOrder = new ArrayList<>(jarPaths);
+    baseOrder.sort(Comparator.comparingInt((Path path) -> basePosition(path, indexedJarNames))
+                             .thenComparing(path -> path.getFileName().toString()));
+    int jarsCount = baseOrder.size();
+    int[] loadedCounts = new int[jarsCount];
+    int[] earliestRanks = new int[jarsCount];
+    List<Set<Integer>> successors = new ArrayList<>(jarsCount);
+    int[] predecessorsCounts = new int[jarsCount];
+    Map<String, Integer> lastHolders = new HashMap<>();
+    for (int i = 0; i < jarsCount; i++) {
+      successors.add(new HashSet<>());
+      earliestRanks[i] = Integer.MAX_VALUE;
+      List<String> entryNames;
+      try {
+        entryNames = readEntryNames(baseOrder.get(i));
+      } catch (IOException e) {
+        log.log(WARNING, "Failed to read ''{0}'' ({1}). Classpath is left in its original order.", baseOrder.get(i), e);
+        return jarPaths;
+      }
+      for (String entryName : entryNames) {
+        if (entryName.endsWith(CLASS_SUFFIX) && !entryName.startsWith(VERSIONS_DIR)) {
+          Integer rank = loadRanks.get(entryName.substring(0, entryName.length() - CLASS_SUFFIX.length()));
+          if (rank != null) {
+            loadedCounts[i]++;
+            earliestRanks[i] = Math.min(earliestRanks[i], rank);
+          }
+        }
+        // a chain of holders is enough to keep the order of all the JARs containing the class or resource
+        Integer lastHolder = lastHolders.put(entryName, i);
+        if (lastHolder != null && lastHolder != i && successors.get(lastHolder).add(i)) {
+          predecessorsCounts[i]++;
+        }
+      }
+    }
+    // then pick the most used JARs among those whose predecessors (if any) are already picked
+    PriorityQueue<Integer> ready = new PriorityQueue<>(
+            Comparator.comparingInt((Integer i) -> -loadedCounts[i])
+                      .thenComparingInt(i -> earliestRanks[i])
+                      .thenComparingInt(i -> i));
+    for (int i = 0; i < jarsCount; i++) {
+      if (predecessorsCounts[i] == 0) {
+        ready.add(i);
+      }
+    }
+    List<Path> ordered = new ArrayList<>(jarsCount);
+    int unusedCount = 0;
+    while (!ready.isEmpty()) {
+      int next = ready.poll();
+      ordered.add(baseOrder.get(next));
+      if (loadedCounts[next] == 0) {
+        unusedCount++;
+      }
+      for (int successor : successors.get(next)) {
+        if (--predecessorsCounts[successor] == 0) {
+          ready.add(successor);
+        }
+      }
+    }
+    log.log(DEBUG, "Ordered {0} classpath entries, {1} of them serve no loaded classes: {2}", jarsCount, unusedCount,
+            ordered);
+    return ordered;
+  }
+
+  /**
+   * Parses the content of Spring Boot's {@code classpath.idx}, i.e. the lines like {@code - "BOOT-INF/lib/x.jar"}.
+   * @return file names of the listed JARs in the order of the index
+   */
+  public static List<String> parseClasspathIndex(List<String> lines) {
+    List<String> jarNames = new ArrayList<>(lines.size());
+    for (String line : lines) {
+      String entry = line.trim();
+      if (entry.startsWith("-")) {
+        entry = entry.substring(1).trim();
+      }
+      if (entry.length() > 1 && entry.startsWith("\"") && entry.endsWith("\"")) {
+        entry = entry.substring(1, entry.length() - 1);
+      }
+      if (!entry.isEmpty()) {
+        jarNames.add(entry.substring(entry.lastIndexOf('/') + 1));
+      }
+    }
+    return jarNames;
+  }
+
+  private static int basePosition(Path jarPath, List<String> indexedJarNames) {
+    String fileName = jarPath.getFileName().toString();
+    if (fileName.endsWith(SLIM_JAR_SUFFIX)) {
+      return -1;
+    }
+    int position = indexedJarNames.indexOf(fileName);
+    return (position < 0) ? indexedJarNames.size() : position;
+  }
+
+  /**
+   * @return the names of all the entries that can be looked up on the classpath, i.e. except directories, the manifest
+   * and signature files which are specific to every JAR
+   */
+  private static List<String> readEntryNames(Path jarPath) throws IOException {
+    try (FileChannel channel = FileChannel.open(jarPath, READ)) {
+      List<ZipDirectory.Entry> entries = ZipDirectory.read(channel).getEntries();
+      List<String> entryNames = new ArrayList<>(entries.size());
+      for (ZipDirectory.Entry entry : entries) {
+        String entryName = entry.getName();
+        if (!entry.isDirectory() && !entryName.equalsIgnoreCase(JarFile.MANIFEST_NAME)
+                && !JarMerger.SIGNATURE_FILE.matcher(entryName).matches()) {
+          entryNames.add(entryName);
+        }
+      }
+      return entryNames;
+    }
+  }
+
+  private static String extractClassName(Object entry) {
+    if (entry instanceof ClassRecordEntry) {
+      return ((ClassRecordEntry) entry).getName();
+    }
+    if (entry instanceof ClassListDirective) {
+      return null;
+    }
+    String line = entry.toString();
+    if (line.isEmpty() || line.startsWith("#") || ClassListDirective.isDirective(line)) {
+      return null;
+    }
+    int spaceIndex = line.indexOf(' ');
+    return ((spaceIndex < 0) ? line : line.substring(0, spaceIndex)).replace('.', '/');
+  }
+}
@@ -0,0 +1,223 @@
+package tech.toparvion.util.jcudos.util;
+
+import tech.toparvion.util.jcudos.model.collate.CollationResult;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+
+/**
+ * Collates class lists of arbitrary size keeping heap usage bounded. Every list is sorted externally: its names are
+ * accumulated into chunks of limited size, each chunk is sorted and spilled into a temporary
+ * {@linkplain BinaryClassList binary class list}, and then all the chunks are k-way merged into a single sorted list
+ * (after which the chunks are deleted).
+ * The merging and intersection of all the lists are computed with another k-way merge. None of the lists is loaded
+ * into heap; they all stay memory-mapped instead.
+ *
+ * @author Toparvion
+ */
+public class ExternalCollator {
+  private static final System.Logger log = System.getLogger(ExternalCollator.class.getSimpleName());
+
+  private final Path spillDir;
+  private final int chunkSize;
+  /** Lists may be sorted concurrently, hence the counter is atomic */
+  private final AtomicInteger spillsCount = new AtomicInteger();
+
+  /**
+   * @param spillRoot directory to create temporary spill files in; they are deleted upon JVM exit
+   * @param chunkSize maximum number of names to be sorted in heap at once; must be positive
+   */
+  public ExternalCollator(Path spillRoot, int chunkSize) throws IOException {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+    }
+    Files.createDirectories(spillRoot);
+    this.spillDir = Files.createTempDirectory(spillRoot, "jcudos-spill-");
+    this.spillDir.toFile().deleteOnExit();     // registered first to be deleted last, i.e. after all its files
+    this.chunkSize = chunkSize;
+    log.log(INFO, "Spill files will be stored in ''{0}''", spillDir);
+  }
+
+  /**
+   * Sorts and deduplicates given names by means of external merge sort.
+   * @param names names to sort; may be read from a file lazily
+   * @return sorted list of unique names mapped from a spill file
+   */
+  public BinaryClassList sort(Iterator<String> names) throws IOException {
+    Sorter sorter = newSorter();
+    try {
+      names.forEachRemaining(sorter::add);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+    return sorter.finish();
+  }
+
+  /**
+   * @return a sorter to push names into one by one, e.g. right from a class list converter
+   */
+  public Sorter newSorter() {
+    return new Sorter();
+  }
+
+  /**
+   * Collates given lists with a single k-way merge pass.
+   * @param allEntries lists to collate; every list must be sorted in
+   * {@linkplain BinaryClassList#compareUtf8(String, String) UTF-8 order} and contain no duplicates
+   * @return collation result backed by spill files
+   */
+  public CollationResult collate(Map<String, List<?>> allEntries) throws IOException {
+    Path mergingPath = nextSpillPath();
+    Path intersectionPath = nextSpillPath();
+    int listsTotal = allEntries.size();
+    try (var mergingWriter = new BinaryClassList.Writer(mergingPath);
+         var intersectionWriter = new BinaryClassList.Writer(intersectionPath)) {
+      merge(allEntries.values(), (name, listsCount) -> {
+        mergingWriter.add(name);
+        if (listsCount == listsTotal) {
+          intersectionWriter.add(name);
+        }
+      });
+    }
+    return new CollationResult(BinaryClassList.open(mergingPath), BinaryClassList.open(intersectionPath), allEntries);
+  }
+
+  /**
+   * Push-style external merge sort of a single list. Accumulates the names into chunks and spills them as soon as a 
+   * chunk gets full. Not thread-safe; use one sorter per list.
+   */
+  public class Sorter {
+    private final List<BinaryClassList> chunks = new ArrayList<>();
+    private final List<Path> chunkPaths = new ArrayList<>();
+    private final List<String> chunk = new ArrayList<>(Math.min(chunkSize, 10_000));
+
+    private Sorter() {
+    }
+
+    /**
+     * @throws UncheckedIOException in case a full chunk cannot be spilled
+     */
+    public void add(String name) {
+      chunk.add(name);
+      if (chunk.size() == chunkSize) {
+        try {
+          spill();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+        chunk.clear();
+      }
+    }
+
+    /**
+     * @return sorted list of unique names of all the pushed ones mapped from a spill file
+     */
+    public BinaryClassList finish() throws IOException {
+      if (!chunk.isEmpty() || chunks.isEmpty()) {
+        spill();
+      }
+      if (chunks.size() == 1) {
+        return chunks.get(0);
+      }
+      Path mergedPath = nextSpillPath();
+      try (var writer = new BinaryClassList.Writer(mergedPath)) {
+        merge(chunks, (name, listsCount) -> writer.add(name));
+      }
+      log.log(DEBUG, "Merged {0} sorted chunks into ''{1}''", chunks.size(), mergedPath);
+      deleteChunks();
+      return BinaryClassList.open(mergedPath);
+    }
+
+    private void spill() throws IOException {
+      Path chunkPath = nextSpillPath();
+      BinaryClassList.write(chunk, chunkPath);
+      chunks.add(BinaryClassList.open(chunkPath));
+      chunkPaths.add(chunkPath);
+      chunk.clear();
+    }
+
+    /**
+     * Deletes the merged chunks not to keep (about) twice as much data on disk as the lists have. The chunks' mappings
+     * are released along with the lists themselves by GC; until then the OS keeps the space of the deleted files.
+     */
+    private void deleteChunks() {
+      chunks.clear();
+      for (Path chunkPath : chunkPaths) {
+        try {
+          Files.deleteIfExists(chunkPath);
+        } catch (IOException e) {
+          // e.g. mapped files can't be deleted on Windows; deleteOnExit will do it then
+          log.log(DEBUG, "Failed to delete chunk ''{0}'': {1}", chunkPath, e);
+        }
+      }
+      chunkPaths.clear();
+    }
+  }
+
+  private Path nextSpillPath() {
+    Path spillPath = spillDir.resolve(String.format("%06d.bin", spillsCount.getAndIncrement()));
+    spillPath.toFile().deleteOnExit();
+    return spillPath;
+  }
+
+  /**
+   * Traverses given sorted lists simultaneously and passes every distinct name to the consumer along with the number
+   * of lists containing it.
+   */
+  private static void merge(Collection<? extends List<?>> lists, MergeConsumer consumer) throws IOException {
+    PriorityQueue<Head> heads = new PriorityQueue<>(Math.max(1, lists.size()));
+    for (List<?> list : lists) {
+      var head = new Head(list.iterator());
+      if (head.advance()) {
+        heads.add(head);
+      }
+    }
+    while (!heads.isEmpty()) {
+      String current = heads.peek().name;
+      int listsCount = 0;
+      while (!heads.isEmpty() && heads.peek().name.equals(current)) {
+        Head head = heads.poll();
+        listsCount++;
+        if (head.advance()) {
+          heads.add(head);
+        }
+      }
+      consumer.accept(current, listsCount);
+    }
+  }
+
+  @FunctionalInterface
+  private interface MergeConsumer {
+
+    void accept(String name, int listsCount) throws IOException;
+  }
+
+  private static class Head implements Comparable<Head> {
+    private final Iterator<?> iterator;
+    private String name;
+
+    Head(Iterator<?> iterator) {
+      this.iterator = iterator;
+    }
+
+    boolean advance() {
+      if (!iterator.hasNext()) {
+        return false;
+      }
+      name = iterator.next().toString();
+      return true;
+    }
+
+    @Override
+    public int compareTo(Head other) {
+      return BinaryClassList.compareUtf8(this.name, other.name);
+    }
+  }
+}
@@ -0,0 +1,233 @@
+package tech.toparvion.util.jcudos.util;
+
+import tech.toparvion.util.jcudos.Constants;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import static java.lang.System.Logger.Level.*;
+import static java.nio.file.StandardOpenOption.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static tech.toparvion.util.jcudos.Constants.BOOT_INF_DIR;
+import static tech.toparvion.util.jcudos.Constants.CLASSPATH_INDEX_FILE_NAME;
+import static tech.toparvion.util.jcudos.Constants.WEB_INF_DIR;
+
+/**
+ * Splits Spring Boot 'fat' JAR into its nested JARs (libraries) and a 'slim' JAR containing the application's own
+ * classes and resources, all in a single pass over the archive. Only the manifest is read ahead (by means of the
+ * central directory) because it is needed before the split, e.g. to find out the application's start class. Every
+ * other entry is read exactly once, in the order of the archive.
+ * <p>As the slim JAR entries differ from the fat JAR ones by names only, they are copied raw by {@link RawZipWriter},
+ * i.e. without being inflated and deflated again. The only entry being recompressed is the (rewritten) manifest.
+ * Likewise, the nested JARs (that Spring Boot keeps uncompressed) are extracted by means of
+ * {@link FileChannel#transferTo}, i.e. with no copying through Java heap.</p>
+ *
+ * @author Toparvion
+ */
+public class FatJarSplitter implements Closeable {
+  private static final System.Logger log = System.getLogger(FatJarSplitter.class.getSimpleName());
+
+  private final Path fatJarPath;
+  private final FileChannel channel;
+  private final ZipDirectory directory;
+
+  public FatJarSplitter(Path fatJarPath) throws IOException {
+    this.fatJarPath = fatJarPath;
+    this.channel = FileChannel.open(fatJarPath, READ);
+    try {
+      this.directory = ZipDirectory.read(channel);
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+  /**
+   * @return resulting slim JAR name, i.e. the same name with {@code .slim.jar} extension
+   */
+  public static String composeSlimJarName(Path fatJarPath) {
+    return fatJarPath.getFileName().toString().replaceAll("(?i)\\.(jar)$", ".slim.$1");
+  }
+
+  /**
+   * @return the manifest of the fat JAR or {@code null} if there is no one
+   */
+  public Manifest getManifest() throws IOException {
+    ZipDirectory.Entry manifestEntry = findManifestEntry();
+    if (manifestEntry == null) {
+      return null;
+    }
+    try (InputStream in = directory.getInputStream(manifestEntry)) {
+      return new Manifest(in);
+    }
+  }
+
+  /**
+   * @return the value of {@code Start-Class} manifest attribute or {@code null} if it's absent, i.e. the JAR is not
+   * a Spring Boot fat JAR
+   */
+  public String getStartClass() throws IOException {
+    Manifest manifest = getManifest();
+    return (manifest == null)
+            ? null
+            : manifest.getMainAttributes().getValue(Constants.START_CLASS_ATTRIBUTE_NAME);
+  }
+
+  /**
+   * @return file names of the nested JARs in the order of Spring Boot's {@code classpath.idx} or an empty list if the
+   * fat JAR has no such index (e.g. it was built by Spring Boot prior to 2.3)
+   */
+  public List<String> getClasspathIndex() throws IOException {
+    ZipDirectory.Entry indexEntry = directory.getEntry(BOOT_INF_DIR + CLASSPATH_INDEX_FILE_NAME);
+    if (indexEntry == null) {
+      indexEntry = directory.getEntry(WEB_INF_DIR + CLASSPATH_INDEX_FILE_NAME);
+    }
+    if (indexEntry == null) {
+      return List.of();
+    }
+    try (BufferedReader reader = new BufferedReader(new InputStreamReader(directory.getInputStream(indexEntry), UTF_8))) {
+      return ClasspathOptimizer.parseClasspathIndex(reader.lines().collect(toList()));
+    }
+  }
+
+  /**
+   * Traverses the fat JAR once, extracting the nested JARs and writing the slim JAR at the same time.
+   * @param libDir directory to extract nested JARs into (by their file names) or {@code null} to skip the extraction
+   * @param slimJarPath path of the slim JAR to create or {@code null} to skip its creation
+   * @implNote The method does NOT check if given JAR is Spring Boot fat JAR.
+   */
+  public void split(Path libDir, Path slimJarPath) throws IOException {
+    split(libDir, slimJarPath, false);
+  }
+
+  /**
+   * The same as {@link #split(Path, Path)} but optionally makes all the entries of the slim JAR uncompressed. Such a
+   * JAR is larger but the JVM spends no CPU to inflate the classes that are loaded from it rather than from the
+   * shared archive.
+   * @param store whether the slim JAR entries should be {@linkplain ZipFormat#STORED stored} uncompressed
+   */
+  public void split(Path libDir, Path slimJarPath, boolean store) throws IOException {
+    int nestedJarsCount = 0;
+    int slimEntriesCount = 0;
+    try (RawZipWriter slimJarWriter = (slimJarPath == null) ? null : new RawZipWriter(slimJarPath)) {
+      ZipDirectory.Entry manifestEntry = findManifestEntry();
+      if (slimJarWriter != null && manifestEntry != null) {
+        // the manifest goes first (unlike the fat JAR) to let JarInputStream find it
+        writeSlimManifest(manifestEntry, slimJarWriter, store);
+      }
+      for (ZipDirectory.Entry entry : directory.getEntries()) {
+        String entryName = entry.getName();
+        if (libDir != null && isNestedJar(entryName)) {
+          extractNestedJar(entry, libDir);
+          nestedJarsCount++;
+          continue;
+        }
+        String slimEntryName = composeSlimEntryName(entryName);
+        if (slimJarWriter == null || slimEntryName == null) {
+          continue;   // nothing but classes (and other resources of the application itself) are interesting here
+        }
+        log.log(TRACE, "Processing archive entry: {0}", entryName);
+        if (store) {
+          slimJarWriter.copyStored(directory, entry, slimEntryName);
+        } else {
+          slimJarWriter.copyRaw(directory, entry, slimEntryName);
+        }
+        slimEntriesCount++;
+      }
+    }
+    if (libDir != null) {
+      log.log(INFO, "Extracted {0} files from fat JAR ''{1}'' to ''{2}''", nestedJarsCount, fatJarPath, libDir);
+    }
+    if (slimJarPath != null) {
+      log.log(INFO, "Converted fat jar ''{0}'' into slim one ''{1}'' ({2} entries)", fatJarPath, slimJarPath,
+              slimEntriesCount);
+    }
+  }
+
+  private void extractNestedJar(ZipDirectory.Entry entry, Path libDir) throws IOException {
+    String entryName = entry.getName();
+    Path extractedEntryPath = libDir.resolve(entryName.substring(entryName.lastIndexOf('/') + 1));
+    if (entry.getMethod() == ZipFormat.STORED) {
+      // that's the case of Spring Boot: the nested JARs' bytes are copied by the OS straight from file to file
+      try (FileChannel out = FileChannel.open(extractedEntryPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+        directory.transferRawTo(entry, out);
+      }
+    } else {
+      try (InputStream in = directory.getInputStream(entry);
+           OutputStream out = Files.newOutputStream(extractedEntryPath)) {
+        in.transferTo(out);
+      }
+    }
+    log.log(TRACE, "File ''{0}'' extracted to ''{1}''", entryName, extractedEntryPath);
+  }
+
+  /**
+   * Reads the manifest, clears it from unnecessary attributes and stores into the slim JAR.
+   */
+  private void writeSlimManifest(ZipDirectory.Entry manifestEntry, RawZipWriter slimJarWriter, boolean store)
+          throws IOException {
+    Manifest manifest;
+    try (InputStream in = directory.getInputStream(manifestEntry)) {
+      manifest = new Manifest(in);
+    }
+    List<String> attributesToRemove = new ArrayList<>(Constants.BASE_ATTRIBUTES_NAMES);
+    Attributes mainAttributes = manifest.getMainAttributes();
+    log.log(DEBUG, "Loaded manifest with {0} attributes.", mainAttributes.size());
+    // filter out all SpringBoot-related attributes as they are not needed in slim JAR
+    mainAttributes.keySet()
+                  .stream()
+                  .map(Object::toString)
+                  .filter(name -> name.startsWith("Spring-Boot-"))
+                  .forEach(attributesToRemove::add);
+    attributesToRemove.stream()
+                      .map(Attributes.Name::new)
+                      .forEach(mainAttributes::remove);
+    mainAttributes.putValue("Created-By", Constants.MY_PRETTY_NAME);
+    var manifestBytes = new ByteArrayOutputStream(512);
+    manifest.write(manifestBytes);
+    slimJarWriter.putEntry(JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), !store);
+    log.log(INFO, "Found, cleaned and wrote manifest with {0} attributes.", mainAttributes.size());
+  }
+
+  private ZipDirectory.Entry findManifestEntry() {
+    // JarInputStream relies on the manifest being one of the first entries but Spring Boot puts it anywhere
+    for (ZipDirectory.Entry entry : directory.getEntries()) {
+      if (JarFile.MANIFEST_NAME.equalsIgnoreCase(entry.getName())) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  private static boolean isNestedJar(String entryName) {
+    return (entryName.startsWith(BOOT_INF_DIR) || entryName.startsWith(WEB_INF_DIR))
+            && entryName.toLowerCase().endsWith(".jar");
+  }
+
+  /**
+   * Turns {@code BOOT-INF/classes/org/something/SomeClass.class} into {@code org/something/SomeClass.class}.
+   * @return the name of the entry in the slim JAR or {@code null} if the entry doesn't belong to the slim JAR
+   */
+  private static String composeSlimEntryName(String entryName) {
+    String prefix = entryName.startsWith(BOOT_INF_DIR + "classes/") ? (BOOT_INF_DIR + "classes/")
+            : entryName.startsWith(WEB_INF_DIR + "classes/") ? (WEB_INF_DIR + "classes/")
+            : null;
+    if (prefix == null || entryName.length() == prefix.length()) {
+      return null;    // to omit preceding 'BOOT-INF/classes/' and similar directories in the slim JAR
+    }
+    return entryName.substring(prefix.length());
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
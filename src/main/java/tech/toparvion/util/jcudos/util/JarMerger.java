@@ -0,0 +1,365 @@
+package tech.toparvion.util.jcudos.util;
+
+import tech.toparvion.util.jcudos.Constants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+
+import static java.lang.System.Logger.Level.*;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Merges a number of JARs into a single one so that the latter behaves on the classpath the same way as all the
+ * merged JARs do (being put on the classpath in the same order):
+ * <ul>
+ *   <li>an entry present in several JARs is taken from the first one (like the class loader does);</li>
+ *   <li>the versioned entries ({@code META-INF/versions/<N>/...}) of multi-release JARs are taken from the same JAR
+ *   as their unversioned counterparts, and the resulting JAR becomes multi-release if any of the merged ones is;</li>
+ *   <li>the files meant to be read from all the JARs at once (like {@code META-INF/services/*} or Spring's
+ *   {@code META-INF/spring.factories}) are merged rather than chosen;</li>
+ *   <li>the manifest gets nothing from the merged JARs' main sections but their package-level attributes (like
+ *   {@code Implementation-Version} or {@code Sealed}) which are turned into the sections of the packages each JAR
+ *   provides; the per-entry sections are kept for the entries taken from their JARs; JAR indexes are dropped.</li>
+ * </ul>
+ * The entries are copied raw, i.e. keep their compression. Signed JARs can't be merged without breaking their
+ * signatures and thus are left as is, along with all the JARs following them (so that the order of the classpath is
+ * kept).
+ *
+ * @author Toparvion
+ */
+public class JarMerger {
+  private static final System.Logger log = System.getLogger(JarMerger.class.getSimpleName());
+
+  private static final String VERSIONS_DIR = "META-INF/versions/";
+  private static final String INDEX_LIST_NAME = "META-INF/INDEX.LIST";
+  private static final String SPRING_FACTORIES_NAME = "META-INF/spring.factories";
+  private static final String CLASS_SUFFIX = ".class";
+  static final Pattern SIGNATURE_FILE = Pattern.compile("META-INF/[^/]+\\.(SF|RSA|DSA|EC)",
+          Pattern.CASE_INSENSITIVE);
+  /** the files whose concatenation is read the same way as the files themselves one after another */
+  private static final Pattern CONCATENATED_FILE = Pattern.compile(
+          "META-INF/services/[^/]+|META-INF/spring/[^/]+\\.imports|META-INF/spring\\.(handlers|schemas|tooling)");
+  /** the main attributes that apply to the packages of the JAR rather than to the JAR as a whole */
+  private static final List<Attributes.Name> PACKAGE_ATTRIBUTES = List.of(
+          Attributes.Name.SEALED,
+          Attributes.Name.SPECIFICATION_TITLE, Attributes.Name.SPECIFICATION_VERSION,
+          Attributes.Name.SPECIFICATION_VENDOR,
+          Attributes.Name.IMPLEMENTATION_TITLE, Attributes.Name.IMPLEMENTATION_VERSION,
+          Attributes.Name.IMPLEMENTATION_VENDOR,
+          new Attributes.Name("Implementation-Vendor-Id"), new Attributes.Name("Implementation-URL"));
+
+  private final boolean store;
+  private int duplicatesCount;
+  private int mergedFilesCount;
+
+  /**
+   * @param store whether the entries created by the merger (e.g. merged service files) should be uncompressed
+   */
+  public JarMerger(boolean store) {
+    this.store = store;
+  }
+
+  /**
+   * @param jarPaths the JARs to merge in the order of the classpath
+   * @param targetPath the resulting JAR
+   * @return the paths of the JARs that have been merged, i.e. the ones preceding the first signed JAR (if any); the
+   * rest are to be left on the classpath behind the resulting JAR in the same order
+   */
+  public List<Path> merge(List<Path> jarPaths, Path targetPath) throws IOException {
+    duplicatesCount = 0;
+    mergedFilesCount = 0;
+    try (SourceJars sources = new SourceJars()) {
+      for (Path jarPath : jarPaths) {
+        SourceJar source = sources.open(jarPath);
+        if (source.isSigned()) {
+          // the merged JAR takes the place of the first JAR, so merging the ones behind would put them before this one
+          log.log(WARNING, "JAR ''{0}'' is signed and thus neither it nor the {1} JARs behind it are merged.", jarPath,
+                  jarPaths.size() - sources.list.size());
+          sources.remove(source);
+          break;
+        }
+      }
+      if (sources.list.size() < 2) {
+        return List.of();
+      }
+      boolean multiRelease = false;
+      for (SourceJar source : sources.list) {
+        multiRelease |= source.isMultiRelease();
+      }
+      // the manifest goes first but depends on the entries taken from every JAR, so they're chosen beforehand
+      List<Copy> copies = new ArrayList<>();
+      Map<String, SourceJar> owners = new HashMap<>();
+      Map<String, SourceJar> packageOwners = new LinkedHashMap<>();
+      Map<String, List<byte[]>> concatenatedFiles = new LinkedHashMap<>();
+      Map<String, List<byte[]>> springFactories = new LinkedHashMap<>();
+      for (SourceJar source : sources.list) {
+        for (ZipDirectory.Entry entry : source.directory.getEntries()) {
+          String name = entry.getName();
+          if (name.equalsIgnoreCase(JarFile.MANIFEST_NAME) || name.equalsIgnoreCase(INDEX_LIST_NAME)) {
+            continue;
+          }
+          if (CONCATENATED_FILE.matcher(name).matches()) {
+            concatenatedFiles.computeIfAbsent(name, key -> new ArrayList<>()).add(source.read(entry));
+            continue;
+          }
+          if (name.equals(SPRING_FACTORIES_NAME)) {
+            springFactories.computeIfAbsent(name, key -> new ArrayList<>()).add(source.read(entry));
+            continue;
+          }
+          if (name.startsWith(VERSIONS_DIR) && !entry.isDirectory() && !source.isMultiRelease() && multiRelease) {
+            continue;     // they would become visible in multi-release JAR while they are not in the original
+          }
+          // versioned entries are resolved along with their unversioned counterparts
+          String logicalName = composeLogicalName(source, name);
+          SourceJar owner = owners.putIfAbsent(logicalName, source);
+          if (owner == null || owner == source) {
+            copies.add(new Copy(source, entry));
+            int packageEnd = logicalName.lastIndexOf('/');
+            if (logicalName.endsWith(CLASS_SUFFIX) && packageEnd > 0) {
+              packageOwners.putIfAbsent(logicalName.substring(0, packageEnd + 1), source);
+            }
+          } else if (!entry.isDirectory()) {
+            duplicatesCount++;
+            log.log(TRACE, "Entry ''{0}'' of ''{1}'' is shadowed by the one of ''{2}''.", name, source.path,
+                    owner.path);
+          }
+        }
+      }
+      try (RawZipWriter writer = new RawZipWriter(targetPath)) {
+        writeManifest(sources.list, multiRelease, owners, packageOwners, writer);
+        for (Copy copy : copies) {
+          writer.copyRaw(copy.source.directory, copy.entry, copy.entry.getName());
+        }
+        for (Map.Entry<String, List<byte[]>> file : concatenatedFiles.entrySet()) {
+          writeConcatenation(file.getKey(), file.getValue(), writer);
+        }
+        for (Map.Entry<String, List<byte[]>> file : springFactories.entrySet()) {
+          writeFactories(file.getKey(), file.getValue(), writer);
+        }
+      }
+      List<Path> mergedPaths = new ArrayList<>(sources.list.size());
+      for (SourceJar source : sources.list) {
+        mergedPaths.add(source.path);
+      }
+      return mergedPaths;
+
+    } catch (IOException e) {
+      Files.deleteIfExists(targetPath);
+      throw e;
+    }
+  }
+
+  /**
+   * @return the number of entries of the last merging that were skipped because preceding JARs had the same ones
+   */
+  public int getDuplicatesCount() {
+    return duplicatesCount;
+  }
+
+  /**
+   * @return the number of files of the last merging that were composed from the same files of several JARs
+   */
+  public int getMergedFilesCount() {
+    return mergedFilesCount;
+  }
+
+  /**
+   * Writes a manifest of the merged JAR's own main attributes plus the sections of the entries and packages provided
+   * by every merged JAR. The main attributes of the merged JARs are not taken (they would apply to all the entries,
+   * e.g. {@code Automatic-Module-Name} or {@code Add-Opens}) except the package-level ones.
+   */
+  private void writeManifest(List<SourceJar> sources, boolean multiRelease, Map<String, SourceJar> owners,
+                             Map<String, SourceJar> packageOwners, RawZipWriter writer) throws IOException {
+    Manifest manifest = new Manifest();
+    Attributes mainAttributes = manifest.getMainAttributes();
+    mainAttributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+    mainAttributes.putValue("Created-By", Constants.MY_PRETTY_NAME);
+    if (multiRelease) {
+      mainAttributes.put(Attributes.Name.MULTI_RELEASE, "true");
+    }
+    Map<String, Attributes> sections = manifest.getEntries();
+    for (SourceJar source : sources) {
+      Manifest sourceManifest = source.readManifest();
+      if (sourceManifest == null) {
+        continue;
+      }
+      for (Map.Entry<String, Attributes> section : sourceManifest.getEntries().entrySet()) {
+        String name = section.getKey();
+        SourceJar provider = name.endsWith("/")
+                ? packageOwners.get(name)
+                : owners.get(composeLogicalName(source, name));
+        if (provider == source && !sections.containsKey(name)) {
+          sections.put(name, (Attributes) section.getValue().clone());
+        }
+      }
+      Attributes sourceAttributes = sourceManifest.getMainAttributes();
+      Attributes packageAttributes = new Attributes();
+      for (Attributes.Name attributeName : PACKAGE_ATTRIBUTES) {
+        if (sourceAttributes.containsKey(attributeName)) {
+          packageAttributes.put(attributeName, sourceAttributes.get(attributeName));
+        }
+      }
+      if (packageAttributes.isEmpty()) {
+        continue;
+      }
+      for (Map.Entry<String, SourceJar> packageOwner : packageOwners.entrySet()) {
+        if (packageOwner.getValue() == source) {
+          // the package's own section (if any) overrides the main attributes
+          Attributes section = sections.computeIfAbsent(packageOwner.getKey(), key -> new Attributes());
+          packageAttributes.forEach(section::putIfAbsent);
+        }
+      }
+    }
+    var manifestBytes = new ByteArrayOutputStream(512);
+    manifest.write(manifestBytes);
+    writer.putEntry(JarFile.MANIFEST_NAME, manifestBytes.toByteArray(), !store);
+  }
+
+  /**
+   * @return the name of given entry as seen through multi-release JAR, e.g. {@code a/B.class} for
+   * {@code META-INF/versions/11/a/B.class}
+   */
+  private static String composeLogicalName(SourceJar source, String name) throws IOException {
+    if (!name.startsWith(VERSIONS_DIR) || name.endsWith("/") || !source.isMultiRelease()) {
+      return name;
+    }
+    int nameStart = name.indexOf('/', VERSIONS_DIR.length());
+    return (nameStart < 0) ? name : name.substring(nameStart + 1);
+  }
+
+  private void writeConcatenation(String name, List<byte[]> contents, RawZipWriter writer) throws IOException {
+    var concatenation = new ByteArrayOutputStream();
+    for (byte[] content : contents) {
+      concatenation.writeBytes(content);
+      if (content.length > 0 && content[content.length - 1] != '\n') {
+        concatenation.write('\n');
+      }
+    }
+    writer.putEntry(name, concatenation.toByteArray(), !store);
+    if (contents.size() > 1) {
+      mergedFilesCount++;
+    }
+  }
+
+  /**
+   * Merges given properties files the way Spring's {@code SpringFactoriesLoader} reads them, i.e. by joining the
+   * values of the same keys with commas.
+   */
+  private void writeFactories(String name, List<byte[]> contents, RawZipWriter writer) throws IOException {
+    Map<String, String> factories = new LinkedHashMap<>();
+    for (byte[] content : contents) {
+      Properties properties = new Properties();
+      properties.load(new ByteArrayInputStream(content));
+      for (String key : new TreeSet<>(properties.stringPropertyNames())) {
+        String value = properties.getProperty(key).trim();
+        factories.merge(key, value, (previous, next) -> previous.isEmpty() ? next : (previous + ',' + next));
+      }
+    }
+    StringBuilder merged = new StringBuilder();
+    for (Map.Entry<String, String> factory : factories.entrySet()) {
+      merged.append(factory.getKey()).append('=').append(factory.getValue()).append('\n');
+    }
+    writer.putEntry(name, merged.toString().getBytes(ISO_8859_1), !store);
+    if (contents.size() > 1) {
+      mergedFilesCount++;
+    }
+  }
+
+  /**
+   * The JARs being merged; they're kept open until the merging ends.
+   */
+  private static class SourceJars implements Closeable {
+    private final List<SourceJar> list = new ArrayList<>();
+
+    SourceJar open(Path path) throws IOException {
+      FileChannel channel = FileChannel.open(path, READ);
+      try {
+        SourceJar source = new SourceJar(path, channel, ZipDirectory.read(channel));
+        list.add(source);
+        return source;
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+    }
+
+    void remove(SourceJar source) throws IOException {
+      list.remove(source);
+      source.channel.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (SourceJar source : list) {
+        source.channel.close();
+      }
+    }
+  }
+
+  private static class Copy {
+    private final SourceJar source;
+    private final ZipDirectory.Entry entry;
+
+    Copy(SourceJar source, ZipDirectory.Entry entry) {
+      this.source = source;
+      this.entry = entry;
+    }
+  }
+
+  private static class SourceJar {
+    private final Path path;
+    private final FileChannel channel;
+    private final ZipDirectory directory;
+    private Boolean multiRelease;
+
+    SourceJar(Path path, FileChannel channel, ZipDirectory directory) {
+      this.path = path;
+      this.channel = channel;
+      this.directory = directory;
+    }
+
+    boolean isSigned() {
+      return directory.getEntries()
+                      .stream()
+                      .anyMatch(entry -> SIGNATURE_FILE.matcher(entry.getName()).matches());
+    }
+
+    boolean isMultiRelease() throws IOException {
+      if (multiRelease == null) {
+        Manifest manifest = readManifest();
+        multiRelease = (manifest != null)
+                && "true".equalsIgnoreCase(manifest.getMainAttributes().getValue(Attributes.Name.MULTI_RELEASE));
+      }
+      return multiRelease;
+    }
+
+    Manifest readManifest() throws IOException {
+      for (ZipDirectory.Entry entry : directory.getEntries()) {
+        if (entry.getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+          try (InputStream in = directory.getInputStream(entry)) {
+            return new Manifest(in);
+          }
+        }
+      }
+      return null;
+    }
+
+    byte[] read(ZipDirectory.Entry entry) throws IOException {
+      try (InputStream in = directory.getInputStream(entry)) {
+        return in.readAllBytes();
+      }
+    }
+  }
+}
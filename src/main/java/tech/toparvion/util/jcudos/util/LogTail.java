@@ -0,0 +1,161 @@
+package tech.toparvion.util.jcudos.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import static java.lang.System.Logger.Level.DEBUG;
+import static java.lang.System.Logger.Level.INFO;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * Reads the lines being appended to a log file, every byte of the file exactly once. The file is kept open between
+ * polls, so when the JVM rotates the log ({@code -Xlog:...:filecount=N}), i.e. renames it and starts a new one under
+ * the same name, the rest of the renamed file is read through the open channel before switching to the new one. The
+ * rotation is detected by the change of the file's key (inode) or, where the key is not available, by the shrinking of
+ * the file.
+ * <p>Several tails may share the set of the keys of the files they have read. Then a file already read by one tail is
+ * skipped by the others, e.g. when a glob matches both the log and its rotated copies, the latter are not read twice.
+ *
+ * @author Toparvion
+ */
+public class LogTail implements Closeable {
+  private static final System.Logger log = System.getLogger(LogTail.class.getSimpleName());
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private final Path path;
+  /** keys of the files read by this and the sibling tails */
+  private final Set<Object> readKeys;
+  private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+  /** the beginning of the line whose end is not written yet */
+  private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream(256);
+  private FileChannel channel;
+  private Object fileKey;
+  private long position;
+  private int rotationsCount;
+
+  public LogTail(Path path) {
+    this(path, new HashSet<>());
+  }
+
+  /**
+   * @param readKeys keys of the files read by this tail's siblings; gets the keys of the files read by this one
+   */
+  public LogTail(Path path, Set<Object> readKeys) {
+    this.path = path;
+    this.readKeys = readKeys;
+  }
+
+  /**
+   * Reads the lines appended since the previous poll (or all the lines of the file in case of the first poll).
+   * @param lineConsumer receiver of the complete lines (without line terminators)
+   * @return the number of bytes read
+   */
+  public long poll(Consumer<String> lineConsumer) throws IOException {
+    long readBytes = (channel == null) ? 0 : drain(lineConsumer);
+    BasicFileAttributes attributes;
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return readBytes;       // the log is rotated but the new one is not created yet; the old one is already read
+    }
+    Object currentKey = attributes.fileKey();
+    boolean replaced = (currentKey != null) && !currentKey.equals(fileKey);
+    boolean truncated = (currentKey == null) && (attributes.size() < position);
+    if (channel == null || replaced || truncated) {
+      if (channel != null) {
+        readBytes += drain(lineConsumer);   // the JVM might have appended to the old file since the drain above
+        if (partialLine.size() > 0) {
+          lineConsumer.accept(partialLine.toString(UTF_8));
+          partialLine.reset();
+        }
+        channel.close();
+        channel = null;
+        rotationsCount++;
+        log.log(INFO, "Log ''{0}'' has been rotated; switched to the new file.", path);
+      }
+      if (currentKey != null && readKeys.contains(currentKey)) {
+        log.log(DEBUG, "Log ''{0}'' (key: {1}) is already read through another path; skipped.", path, currentKey);
+        return readBytes;
+      }
+      channel = FileChannel.open(path, READ);
+      fileKey = currentKey;
+      position = 0;
+      if (currentKey != null) {
+        readKeys.add(currentKey);
+      }
+      log.log(DEBUG, "Opened log ''{0}'' (key: {1})", path, fileKey);
+      readBytes += drain(lineConsumer);
+    }
+    return readBytes;
+  }
+
+  /**
+   * @return the key of given file or {@code null} if the file system doesn't provide one
+   */
+  public static Object readFileKey(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+  }
+
+  public Path getPath() {
+    return path;
+  }
+
+  public int getRotationsCount() {
+    return rotationsCount;
+  }
+
+  private long drain(Consumer<String> lineConsumer) throws IOException {
+    long readBytes = 0;
+    int count;
+    while ((count = channel.read(buffer, position)) > 0) {
+      position += count;
+      readBytes += count;
+      buffer.flip();
+      splitLines(lineConsumer);
+      buffer.clear();
+    }
+    return readBytes;
+  }
+
+  private void splitLines(Consumer<String> lineConsumer) {
+    byte[] bytes = buffer.array();
+    int limit = buffer.limit();
+    int lineStart = 0;
+    for (int i = 0; i < limit; i++) {
+      if (bytes[i] != '\n') {
+        continue;
+      }
+      int lineEnd = (i > lineStart && bytes[i - 1] == '\r') ? (i - 1) : i;
+      String line;
+      if (partialLine.size() == 0) {
+        line = new String(bytes, lineStart, lineEnd - lineStart, UTF_8);
+      } else {
+        partialLine.write(bytes, lineStart, lineEnd - lineStart);
+        line = partialLine.toString(UTF_8);
+        partialLine.reset();
+      }
+      lineConsumer.accept(line);
+      lineStart = i + 1;
+    }
+    partialLine.write(bytes, lineStart, limit - lineStart);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (channel != null) {
+      channel.close();
+    }
+  }
+}
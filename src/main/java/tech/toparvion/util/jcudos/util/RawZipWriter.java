@@ -0,0 +1,242 @@
+package tech.toparvion.util.jcudos.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static tech.toparvion.util.jcudos.util.ZipFormat.*;
+
+/**
+ * A ZIP (JAR) file writer that takes the entries from other archives as is, i.e. copies their compressed data along
+ * with the CRCs and sizes from the source's {@link ZipDirectory central directory} and (optionally) gives them new
+ * names. Nothing is inflated or deflated, so the copying goes at disk speed; moreover, the data is transferred by the
+ * OS (see {@link FileChannel#transferTo}) without passing through Java heap. New entries (like a rewritten manifest)
+ * can be added from byte arrays. Optionally, the entries can be {@linkplain #copyStored stored} uncompressed instead
+ * (at the cost of inflating them once). The central directory is written upon {@linkplain #close() closing}.
+ * <p>ZIP64 archives are not supported, i.e. there may be at most 65535 entries and 4 GB of data.</p>
+ *
+ * @author Toparvion
+ */
+public final class RawZipWriter implements Closeable {
+  private static final int VERSION_NEEDED = 20;
+  private static final int DATA_DESCRIPTOR_FLAG = 0x08;
+  private static final int UTF8_FLAG = 0x800;
+  /** 1980-01-01 00:00 */
+  private static final int DEFAULT_DOS_TIME = (1 << 21) | (1 << 16);
+
+  private final FileChannel out;
+  private final List<Record> records = new ArrayList<>();
+
+  public RawZipWriter(Path path) throws IOException {
+    this.out = FileChannel.open(path, WRITE, CREATE, TRUNCATE_EXISTING);
+  }
+
+  /**
+   * Copies given entry of given archive into this one under given name.
+   */
+  public void copyRaw(ZipDirectory source, ZipDirectory.Entry entry, String name) throws IOException {
+    // the sizes and CRC are known in advance, so there is no need in data descriptor after the data
+    int flags = (entry.getFlags() & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG;
+    Record record = new Record(name, flags, entry.getMethod(), entry.getDosTime(), entry.getCrc(),
+            entry.getCompressedSize(), entry.getSize(), out.position());
+    writeLocalHeader(record);
+    source.transferRawTo(entry, out);
+    records.add(record);
+  }
+
+  /**
+   * Copies given entry of given archive into this one under given name, making it {@linkplain ZipFormat#STORED
+   * uncompressed} if it's not yet. Unlike the raw copying, this inflates compressed entries but the cost is paid once
+   * whereas the JVM would pay it upon every start when loading classes from the archive.
+   */
+  public void copyStored(ZipDirectory source, ZipDirectory.Entry entry, String name) throws IOException {
+    if (entry.getMethod() == STORED) {
+      copyRaw(source, entry, name);
+      return;
+    }
+    // the uncompressed size and CRC are known from the source's central directory as well
+    int flags = (entry.getFlags() & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG;
+    Record record = new Record(name, flags, STORED, entry.getDosTime(), entry.getCrc(), entry.getSize(),
+            entry.getSize(), out.position());
+    writeLocalHeader(record);
+    long written;
+    try (InputStream in = source.getInputStream(entry)) {
+      written = in.transferTo(Channels.newOutputStream(out));
+    }
+    if (written != entry.getSize()) {
+      throw new IOException("Entry " + entry.getName() + " has " + written + " bytes instead of " + entry.getSize());
+    }
+    records.add(record);
+  }
+
+  /**
+   * Rewrites given archive so that all its entries become {@linkplain ZipFormat#STORED uncompressed}. The archive
+   * is replaced only after the new one is completely written.
+   * @return {@code true} if the archive has been rewritten or {@code false} if it had no compressed entries
+   */
+  public static boolean repackStored(Path jarPath) throws IOException {
+    Path tmpPath = jarPath.resolveSibling(jarPath.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(jarPath, READ)) {
+      ZipDirectory directory = ZipDirectory.read(channel);
+      if (directory.getEntries().stream().allMatch(entry -> entry.getMethod() == STORED)) {
+        return false;
+      }
+      try (RawZipWriter writer = new RawZipWriter(tmpPath)) {
+        for (ZipDirectory.Entry entry : directory.getEntries()) {
+          writer.copyStored(directory, entry, entry.getName());
+        }
+      }
+    } catch (IOException e) {
+      Files.deleteIfExists(tmpPath);
+      throw e;
+    }
+    Files.move(tmpPath, jarPath, REPLACE_EXISTING);
+    return true;
+  }
+
+  /**
+   * Adds new entry with given content.
+   * @param deflate whether the content should be compressed
+   */
+  public void putEntry(String name, byte[] content, boolean deflate) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(content);
+    byte[] data = deflate ? deflate(content) : content;
+    Record record = new Record(name, UTF8_FLAG, deflate ? DEFLATED : STORED, DEFAULT_DOS_TIME, crc.getValue(),
+            data.length, content.length, out.position());
+    writeLocalHeader(record);
+    writeFully(ByteBuffer.wrap(data));
+    records.add(record);
+  }
+
+  /**
+   * @return the number of entries written so far
+   */
+  public int size() {
+    return records.size();
+  }
+
+  private void writeLocalHeader(Record record) throws IOException {
+    ByteBuffer header = ByteBuffer.allocate(LOC_SIZE + record.nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+    header.putInt(LOC_SIGNATURE)
+          .putShort((short) VERSION_NEEDED)
+          .putShort((short) record.flags)
+          .putShort((short) record.method)
+          .putInt(record.dosTime)
+          .putInt((int) record.crc)
+          .putInt((int) record.compressedSize)
+          .putInt((int) record.size)
+          .putShort((short) record.nameBytes.length)
+          .putShort((short) 0)      // no extra field
+          .put(record.nameBytes);
+    writeFully(header.flip());
+  }
+
+  @Override
+  public void close() throws IOException {
+    try (out) {
+      long directoryOffset = out.position();
+      if (records.size() > 0xffff || directoryOffset > 0xffffffffL) {
+        throw new IOException("Too many or too large entries; ZIP64 archives are not supported");
+      }
+      int directorySize = records.stream().mapToInt(record -> CEN_SIZE + record.nameBytes.length).sum();
+      ByteBuffer directory = ByteBuffer.allocate(directorySize + EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      for (Record record : records) {
+        directory.putInt(CEN_SIGNATURE)
+                 .putShort((short) VERSION_NEEDED)      // version made by
+                 .putShort((short) VERSION_NEEDED)
+                 .putShort((short) record.flags)
+                 .putShort((short) record.method)
+                 .putInt(record.dosTime)
+                 .putInt((int) record.crc)
+                 .putInt((int) record.compressedSize)
+                 .putInt((int) record.size)
+                 .putShort((short) record.nameBytes.length)
+                 .putShort((short) 0)       // extra field length
+                 .putShort((short) 0)       // comment length
+                 .putShort((short) 0)       // disk number
+                 .putShort((short) 0)       // internal attributes
+                 .putInt(0)                 // external attributes
+                 .putInt((int) record.localHeaderOffset)
+                 .put(record.nameBytes);
+      }
+      directory.putInt(EOCD_SIGNATURE)
+               .putShort((short) 0)         // disk number
+               .putShort((short) 0)         // disk with central directory
+               .putShort((short) records.size())
+               .putShort((short) records.size())
+               .putInt(directorySize)
+               .putInt((int) directoryOffset)
+               .putShort((short) 0);        // comment length
+      writeFully(directory.flip());
+    }
+  }
+
+  private void writeFully(ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static byte[] deflate(byte[] content) {
+    Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+    try {
+      deflater.setInput(content);
+      deflater.finish();
+      byte[] buffer = new byte[Math.max(64, content.length + content.length / 1000 + 64)];
+      int length = 0;
+      while (!deflater.finished()) {
+        if (length == buffer.length) {
+          buffer = Arrays.copyOf(buffer, buffer.length * 2);
+        }
+        length += deflater.deflate(buffer, length, buffer.length - length);
+      }
+      return Arrays.copyOf(buffer, length);
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * A written entry to be put into the central directory.
+   */
+  private static class Record {
+    private final byte[] nameBytes;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    Record(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+           long localHeaderOffset) throws IOException {
+      this.nameBytes = name.getBytes(UTF_8);
+      if (nameBytes.length > 0xffff || localHeaderOffset > 0xffffffffL) {
+        throw new IOException("Entry " + name + " can't be written without ZIP64 extensions");
+      }
+      this.flags = flags;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package tech.toparvion.util.jcudos.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static tech.toparvion.util.jcudos.util.ZipFormat.*;
+
+/**
+ * The central directory of a ZIP (JAR) file read through a {@link FileChannel}. Gives the entries in the order of the
+ * directory (which is the order of their data in the archive) along with everything needed to read their data either
+ * uncompressed or raw, i.e. without opening the archive as a {@link java.util.zip.ZipFile} and without streaming it
+ * from the very beginning as {@link java.util.zip.ZipInputStream} does.
+ * <p>All the reads are positional, so the channel's position is never changed. ZIP64 archives are not supported.</p>
+ *
+ * @author Toparvion
+ */
+public final class ZipDirectory {
+  private final FileChannel channel;
+  private final List<Entry> entries;
+  /** the number of bytes prepended to the archive (e.g. a launch script of an executable JAR) */
+  private final long prefixLength;
+
+  private ZipDirectory(FileChannel channel, List<Entry> entries, long prefixLength) {
+    this.channel = channel;
+    this.entries = entries;
+    this.prefixLength = prefixLength;
+  }
+
+  /**
+   * Reads the central directory of the archive opened as given channel. The channel is not closed by this class.
+   */
+  public static ZipDirectory read(FileChannel channel) throws IOException {
+    long tailStart = Math.max(0, channel.size() - EOCD_MAX_SIZE);
+    ByteBuffer tail = readFully(channel, tailStart, (int) (channel.size() - tailStart));
+    ZipFormat.EndRecord end = ZipFormat.readEndRecord(tail);
+    long directoryStart = tailStart + end.getOffset() - end.getDirectorySize();
+    long prefixLength = directoryStart - end.getDirectoryOffset();
+    ByteBuffer directory = readFully(channel, directoryStart, Math.toIntExact(end.getDirectorySize()));
+    List<Entry> entries = new ArrayList<>(end.getEntriesCount());
+    ZipFormat.readDirectory(directory, 0, end.getEntriesCount(), (name, cen) -> entries.add(new Entry(
+            name,
+            Short.toUnsignedInt(directory.getShort(cen + CEN_FLAGS)),
+            Short.toUnsignedInt(directory.getShort(cen + CEN_METHOD)),
+            directory.getInt(cen + CEN_DOS_TIME),
+            Integer.toUnsignedLong(directory.getInt(cen + CEN_CRC)),
+            Integer.toUnsignedLong(directory.getInt(cen + CEN_COMPRESSED_SIZE)),
+            Integer.toUnsignedLong(directory.getInt(cen + CEN_UNCOMPRESSED_SIZE)),
+            prefixLength + Integer.toUnsignedLong(directory.getInt(cen + CEN_LOCAL_HEADER_OFFSET)))));
+    return new ZipDirectory(channel, Collections.unmodifiableList(entries), prefixLength);
+  }
+
+  /**
+   * @return the entries in the order of the central directory
+   */
+  public List<Entry> getEntries() {
+    return entries;
+  }
+
+  /**
+   * @return the first entry with given name or {@code null} if there is no such entry
+   */
+  public Entry getEntry(String name) {
+    for (Entry entry : entries) {
+      if (entry.name.equals(name)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @return position of the entry's (compressed) data in the channel
+   */
+  public long getDataOffset(Entry entry) throws IOException {
+    ByteBuffer header = readFully(channel, entry.localHeaderOffset, LOC_SIZE);
+    try {
+      return entry.localHeaderOffset + ZipFormat.readLocalHeaderLength(header, 0);
+    } catch (IOException e) {
+      throw new IOException("Invalid local header of entry " + entry.name, e);
+    }
+  }
+
+  /**
+   * @return a stream of given entry's raw (i.e. compressed as is) data
+   */
+  public InputStream getRawInputStream(Entry entry) throws IOException {
+    return new ChannelInputStream(channel, getDataOffset(entry), entry.compressedSize);
+  }
+
+  /**
+   * Copies given entry's raw (i.e. compressed as is) data into given channel. When the latter is a file channel too,
+   * the copying is done by the OS without passing the bytes through Java heap.
+   */
+  public void transferRawTo(Entry entry, WritableByteChannel target) throws IOException {
+    long position = getDataOffset(entry);
+    long end = position + entry.compressedSize;
+    while (position < end) {
+      long transferred = channel.transferTo(position, end - position, target);
+      if (transferred <= 0) {
+        throw new IOException("Unexpected end of file at offset " + position);
+      }
+      position += transferred;
+    }
+  }
+
+  /**
+   * @return a stream of given entry's uncompressed data
+   */
+  public InputStream getInputStream(Entry entry) throws IOException {
+    InputStream raw = getRawInputStream(entry);
+    switch (entry.method) {
+      case STORED:
+        return raw;
+      case DEFLATED:
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(raw, inflater, 0x2000) {
+          @Override
+          public void close() throws IOException {
+            super.close();
+            inflater.end();     // custom inflaters are not released by the stream itself
+          }
+        };
+      default:
+        throw new IOException("Unsupported compression method " + entry.method + " of entry " + entry.name);
+    }
+  }
+
+  /**
+   * @return the number of bytes prepended to the archive, e.g. by Spring Boot's launch script
+   */
+  public long getPrefixLength() {
+    return prefixLength;
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file at offset " + (position + buffer.position()));
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * A central directory record.
+   */
+  public static final class Entry {
+    private final String name;
+    private final int flags;
+    private final int method;
+    private final int dosTime;
+    private final long crc;
+    private final long compressedSize;
+    private final long size;
+    private final long localHeaderOffset;
+
+    Entry(String name, int flags, int method, int dosTime, long crc, long compressedSize, long size,
+          long localHeaderOffset) {
+      this.name = name;
+      this.flags = flags;
+      this.method = method;
+      this.dosTime = dosTime;
+      this.crc = crc;
+      this.compressedSize = compressedSize;
+      this.size = size;
+      this.localHeaderOffset = localHeaderOffset;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * @return general purpose bit flags
+     */
+    public int getFlags() {
+      return flags;
+    }
+
+    /**
+     * @return compression method, e.g. {@link ZipFormat#STORED} or {@link ZipFormat#DEFLATED}
+     */
+    public int getMethod() {
+      return method;
+    }
+
+    /**
+     * @return last modification time and date in MS-DOS format (as they're stored in the archive)
+     */
+    public int getDosTime() {
+      return dosTime;
+    }
+
+    public long getCrc() {
+      return crc;
+    }
+
+    public long getCompressedSize() {
+      return compressedSize;
+    }
+
+    public long getSize() {
+      return size;
+    }
+
+    public boolean isDirectory() {
+      return name.endsWith("/");
+    }
+
+    @Override
+    public String toString() {
+      return name;
+    }
+  }
+
+  /**
+   * A stream over a region of a file channel; reads are positional so any number of such streams can be used at once.
+   */
+  private static class ChannelInputStream extends InputStream {
+    private final FileChannel channel;
+    private long position;
+    private final long end;
+
+    ChannelInputStream(FileChannel channel, long position, long length) {
+      this.channel = channel;
+      this.position = position;
+      this.end = position + length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return (read(single, 0, 1) < 0) ? -1 : (single[0] & 0xff);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      if (position >= end) {
+        return -1;
+      }
+      int count = (int) Math.min(len, end - position);
+      int read = channel.read(ByteBuffer.wrap(b, off, count), position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file at offset " + position);
+      }
+      position += read;
+      return read;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, end - position);
+    }
+  }
+}
@@ -0,0 +1,154 @@
+package tech.toparvion.util.jcudos.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * The layout of ZIP (JAR) file records shared by the reader ({@link ZipDirectory}) and the writer
+ * ({@link RawZipWriter}) of the archives, along with the parsing of the end of central directory record and of the
+ * central directory itself. The parsing works over little endian byte buffers; all the offsets are relative to the
+ * buffers given.
+ * <p>ZIP64 archives are not supported. The cl4cds converter ({@code io.simonis}) doesn't use this class on purpose:
+ * it stays free of jCuDoS dependencies and reads the archives with a parser of its own.</p>
+ *
+ * @author Toparvion
+ */
+public final class ZipFormat {
+  public static final int STORED = 0;
+  public static final int DEFLATED = 8;
+
+  public static final int LOC_SIGNATURE = 0x04034b50;
+  public static final int LOC_SIZE = 30;
+  public static final int CEN_SIGNATURE = 0x02014b50;
+  public static final int CEN_SIZE = 46;
+  public static final int EOCD_SIGNATURE = 0x06054b50;
+  public static final int EOCD_SIZE = 22;
+  /** the end record is followed by the comment which is at most 64K long */
+  public static final int EOCD_MAX_SIZE = EOCD_SIZE + 0xffff;
+
+  //<editor-fold desc="Central directory header fields">
+  public static final int CEN_FLAGS = 8;
+  public static final int CEN_METHOD = 10;
+  public static final int CEN_DOS_TIME = 12;
+  public static final int CEN_CRC = 16;
+  public static final int CEN_COMPRESSED_SIZE = 20;
+  public static final int CEN_UNCOMPRESSED_SIZE = 24;
+  public static final int CEN_LOCAL_HEADER_OFFSET = 42;
+  private static final int CEN_NAME_LENGTH = 28;
+  private static final int CEN_EXTRA_LENGTH = 30;
+  private static final int CEN_COMMENT_LENGTH = 32;
+  //</editor-fold>
+
+  private static final int LOC_NAME_LENGTH = 26;
+  private static final int LOC_EXTRA_LENGTH = 28;
+
+  private ZipFormat() {}
+
+  /**
+   * Finds the end of central directory record in given buffer holding the tail of an archive (or the whole one).
+   */
+  public static EndRecord readEndRecord(ByteBuffer tail) throws IOException {
+    int lowest = Math.max(0, tail.limit() - EOCD_MAX_SIZE);
+    for (int eocd = tail.limit() - EOCD_SIZE; eocd >= lowest; eocd--) {
+      if (tail.getInt(eocd) == EOCD_SIGNATURE) {
+        int entriesCount = Short.toUnsignedInt(tail.getShort(eocd + 10));
+        long directorySize = Integer.toUnsignedLong(tail.getInt(eocd + 12));
+        long directoryOffset = Integer.toUnsignedLong(tail.getInt(eocd + 16));
+        if (entriesCount == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+          throw new IOException("ZIP64 archives are not supported");
+        }
+        return new EndRecord(eocd, entriesCount, directorySize, directoryOffset);
+      }
+    }
+    throw new IOException("Not a ZIP archive (no end of central directory record found)");
+  }
+
+  /**
+   * Walks through the central directory headers passing each one's name and offset to given visitor.
+   * @param start offset of the first header in the buffer
+   */
+  public static void readDirectory(ByteBuffer directory, int start, int entriesCount, HeaderVisitor visitor)
+          throws IOException {
+    ByteBuffer names = directory.duplicate();
+    byte[] nameBytes = new byte[256];
+    for (int i = 0, cen = start; i < entriesCount; i++) {
+      if (directory.getInt(cen) != CEN_SIGNATURE) {
+        throw new IOException("Invalid central directory header at offset " + cen);
+      }
+      int nameLength = Short.toUnsignedInt(directory.getShort(cen + CEN_NAME_LENGTH));
+      int extraLength = Short.toUnsignedInt(directory.getShort(cen + CEN_EXTRA_LENGTH));
+      int commentLength = Short.toUnsignedInt(directory.getShort(cen + CEN_COMMENT_LENGTH));
+      if (nameBytes.length < nameLength) {
+        nameBytes = new byte[nameLength];
+      }
+      names.position(cen + CEN_SIZE);
+      names.get(nameBytes, 0, nameLength);
+      visitor.visit(new String(nameBytes, 0, nameLength, UTF_8), cen);
+      cen += CEN_SIZE + nameLength + extraLength + commentLength;
+    }
+  }
+
+  /**
+   * @param loc offset of the local header in the buffer
+   * @return the length of the local header including the name and the extra field, i.e. the offset of the entry's data
+   * relative to the header
+   */
+  public static int readLocalHeaderLength(ByteBuffer header, int loc) throws IOException {
+    if (header.getInt(loc) != LOC_SIGNATURE) {
+      throw new IOException("Invalid local header at offset " + loc);
+    }
+    // the lengths in local header may differ from the ones in central directory
+    return LOC_SIZE + Short.toUnsignedInt(header.getShort(loc + LOC_NAME_LENGTH))
+            + Short.toUnsignedInt(header.getShort(loc + LOC_EXTRA_LENGTH));
+  }
+
+  @FunctionalInterface
+  public interface HeaderVisitor {
+    /**
+     * @param cen offset of the entry's central directory header in the buffer
+     */
+    void visit(String name, int cen) throws IOException;
+  }
+
+  /**
+   * The end of central directory record.
+   */
+  public static final class EndRecord {
+    private final int offset;
+    private final int entriesCount;
+    private final long directorySize;
+    private final long directoryOffset;
+
+    EndRecord(int offset, int entriesCount, long directorySize, long directoryOffset) {
+      this.offset = offset;
+      this.entriesCount = entriesCount;
+      this.directorySize = directorySize;
+      this.directoryOffset = directoryOffset;
+    }
+
+    /**
+     * @return offset of the record in the buffer it has been read from
+     */
+    public int getOffset() {
+      return offset;
+    }
+
+    public int getEntriesCount() {
+      return entriesCount;
+    }
+
+    public long getDirectorySize() {
+      return directorySize;
+    }
+
+    /**
+     * @return offset of the central directory as it's stored in the record, i.e. not counting the bytes prepended to
+     * the archive (if any)
+     */
+    public long getDirectoryOffset() {
+      return directoryOffset;
+    }
+  }
+}